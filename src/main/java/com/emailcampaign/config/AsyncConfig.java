@@ -0,0 +1,98 @@
+package com.emailcampaign.config;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.task.TaskExecutionAutoConfiguration;
+import org.springframework.boot.task.ThreadPoolTaskExecutorBuilder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.annotation.AsyncAnnotationBeanPostProcessor;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+
+/**
+ * One bounded executor per subsystem, so a backlog in one cannot take threads from another:
+ * <ul>
+ *   <li>{@code sendExecutor}: send loops of bulk campaigns. A full queue rejects the loop; the
+ *   campaign stays SENDING and the dispatcher's next poll joins it again.</li>
+ *   <li>{@code prioritySendExecutor}: send loops of transactional campaigns, same policy.</li>
+ *   <li>{@code analyticsExecutor}: analytics recalculations. A full queue rejects the request.</li>
+ * </ul>
+ * Sizes come from {@code app.executors.<name>.pool-size} and {@code queue-capacity}. Spring Boot
+ * exports active, queued, completed and pool size of every executor bean as {@code executor.*}
+ * meters tagged with the bean name; rejections are counted in {@code executor.rejected}.
+ */
+@Configuration
+public class AsyncConfig {
+
+    @Value("${app.executors.send.pool-size:8}")
+    private int sendPoolSize;
+
+    @Value("${app.executors.send.queue-capacity:100}")
+    private int sendQueueCapacity;
+
+    @Value("${app.executors.priority-send.pool-size:4}")
+    private int prioritySendPoolSize;
+
+    @Value("${app.executors.priority-send.queue-capacity:100}")
+    private int prioritySendQueueCapacity;
+
+    @Value("${app.executors.analytics.pool-size:2}")
+    private int analyticsPoolSize;
+
+    @Value("${app.executors.analytics.queue-capacity:20}")
+    private int analyticsQueueCapacity;
+
+    /**
+     * Default {@code @Async} executor, configured through {@code spring.task.execution} as before.
+     * Declaring any executor bean turns off Spring Boot's own, so this one takes its names.
+     */
+    @Bean(name = {TaskExecutionAutoConfiguration.APPLICATION_TASK_EXECUTOR_BEAN_NAME,
+            AsyncAnnotationBeanPostProcessor.DEFAULT_TASK_EXECUTOR_BEAN_NAME})
+    public ThreadPoolTaskExecutor taskExecutor(ThreadPoolTaskExecutorBuilder builder) {
+        return builder.build();
+    }
+
+    @Bean
+    public ThreadPoolTaskExecutor sendExecutor(ThreadPoolTaskExecutorBuilder builder, MeterRegistry meterRegistry) {
+        return executor(builder, meterRegistry, "sendExecutor", "send-", sendPoolSize, sendQueueCapacity,
+                new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    @Bean
+    public ThreadPoolTaskExecutor prioritySendExecutor(ThreadPoolTaskExecutorBuilder builder,
+                                                       MeterRegistry meterRegistry) {
+        return executor(builder, meterRegistry, "prioritySendExecutor", "priority-send-",
+                prioritySendPoolSize, prioritySendQueueCapacity, new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    @Bean
+    public ThreadPoolTaskExecutor analyticsExecutor(ThreadPoolTaskExecutorBuilder builder, MeterRegistry meterRegistry) {
+        return executor(builder, meterRegistry, "analyticsExecutor", "analytics-", analyticsPoolSize,
+                analyticsQueueCapacity, new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    private ThreadPoolTaskExecutor executor(ThreadPoolTaskExecutorBuilder builder, MeterRegistry meterRegistry,
+                                            String name, String threadNamePrefix, int poolSize, int queueCapacity,
+                                            RejectedExecutionHandler policy) {
+        Counter rejected = Counter.builder("executor.rejected")
+                .description("Tasks the executor turned away because its queue was full")
+                .tag("name", name)
+                .register(meterRegistry);
+
+        // Fixed size: a pool only grows past its core size once the queue is full
+        ThreadPoolTaskExecutor executor = builder.corePoolSize(poolSize)
+                .maxPoolSize(poolSize)
+                .queueCapacity(queueCapacity)
+                .threadNamePrefix(threadNamePrefix)
+                .build();
+        executor.setRejectedExecutionHandler((task, pool) -> {
+            rejected.increment();
+            policy.rejectedExecution(task, pool);
+        });
+        return executor;
+    }
+}
@@ -0,0 +1,34 @@
+package com.emailcampaign.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+@Data
+@Component
+@ConfigurationProperties(prefix = "app.throttle")
+public class ThrottleProperties {
+
+    // Messages per second allowed to any domain without its own entry
+    private double defaultRate = 50;
+
+    private int defaultBurst = 50;
+
+    // Upper bound on recipients held back for throttled domains before the sender waits
+    private int maxDeferred = 10000;
+
+    private Map<String, DomainRate> domains = new HashMap<>();
+
+    @Data
+    public static class DomainRate {
+        private double rate;
+        private Integer burst;
+        // Domains served by the same provider, sharing this bucket
+        private List<String> aliases = new ArrayList<>();
+    }
+}
@@ -9,6 +9,7 @@ import com.emailcampaign.service.CampaignService;
 import com.emailcampaign.service.UserService;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.task.TaskRejectedException;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.Authentication;
@@ -75,9 +76,13 @@ public class AnalyticsController {
                         .body(ApiResponse.error("Access denied"));
             }
             
-            analyticsService.calculateCampaignAnalytics(campaign.get());
-            return ResponseEntity.ok(ApiResponse.success("Analytics calculated successfully"));
+            analyticsService.recalculateCampaignAnalytics(campaign.get());
+            return ResponseEntity.status(HttpStatus.ACCEPTED)
+                    .body(ApiResponse.success("Analytics recalculation started"));
             
+        } catch (TaskRejectedException e) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .body(ApiResponse.error("Too many analytics recalculations queued, try again later"));
         } catch (Exception e) {
             log.error("Error calculating campaign analytics: {}", e.getMessage());
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
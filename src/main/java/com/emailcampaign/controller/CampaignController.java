@@ -2,6 +2,7 @@ package com.emailcampaign.controller;
 
 import com.emailcampaign.dto.ApiResponse;
 import com.emailcampaign.dto.CampaignDto;
+import com.emailcampaign.dto.CampaignProgressDto;
 import com.emailcampaign.model.Campaign;
 import com.emailcampaign.model.User;
 import com.emailcampaign.service.CampaignService;
@@ -122,6 +123,62 @@ public class CampaignController {
         }
     }
     
+    @PostMapping("/{id}/pause")
+    public ResponseEntity<ApiResponse> pauseCampaign(@PathVariable Long id,
+                                                   Authentication authentication) {
+        try {
+            User user = getCurrentUser(authentication);
+            campaignService.pauseCampaign(id, user);
+            return ResponseEntity.ok(ApiResponse.success("Campaign paused successfully"));
+        } catch (Exception e) {
+            log.error("Error pausing campaign: {}", e.getMessage());
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST)
+                    .body(ApiResponse.error(e.getMessage()));
+        }
+    }
+    
+    @PostMapping("/{id}/resume")
+    public ResponseEntity<ApiResponse> resumeCampaign(@PathVariable Long id,
+                                                    Authentication authentication) {
+        try {
+            User user = getCurrentUser(authentication);
+            campaignService.resumeCampaign(id, user);
+            return ResponseEntity.ok(ApiResponse.success("Campaign resumed successfully"));
+        } catch (Exception e) {
+            log.error("Error resuming campaign: {}", e.getMessage());
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST)
+                    .body(ApiResponse.error(e.getMessage()));
+        }
+    }
+    
+    @PostMapping("/{id}/cancel")
+    public ResponseEntity<ApiResponse> cancelCampaign(@PathVariable Long id,
+                                                    Authentication authentication) {
+        try {
+            User user = getCurrentUser(authentication);
+            campaignService.cancelCampaign(id, user);
+            return ResponseEntity.ok(ApiResponse.success("Campaign cancelled successfully"));
+        } catch (Exception e) {
+            log.error("Error cancelling campaign: {}", e.getMessage());
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST)
+                    .body(ApiResponse.error(e.getMessage()));
+        }
+    }
+    
+    @GetMapping("/{id}/progress")
+    public ResponseEntity<ApiResponse> getCampaignProgress(@PathVariable Long id,
+                                                         Authentication authentication) {
+        try {
+            User user = getCurrentUser(authentication);
+            CampaignProgressDto progress = campaignService.getCampaignProgress(id, user);
+            return ResponseEntity.ok(ApiResponse.success("Campaign progress retrieved successfully", progress));
+        } catch (Exception e) {
+            log.error("Error retrieving campaign progress: {}", e.getMessage());
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST)
+                    .body(ApiResponse.error(e.getMessage()));
+        }
+    }
+    
     @PostMapping("/{id}/schedule")
     public ResponseEntity<ApiResponse> scheduleCampaign(@PathVariable Long id,
                                                       @RequestParam String scheduledAt,
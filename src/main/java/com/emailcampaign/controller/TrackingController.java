@@ -10,6 +10,7 @@ import org.springframework.web.bind.annotation.*;
 
 import jakarta.servlet.http.HttpServletRequest;
 import java.util.Base64;
+import java.util.Optional;
 
 @RestController
 @RequestMapping("/api/tracking")
@@ -20,11 +21,11 @@ public class TrackingController {
     
     private final TrackingService trackingService;
     
-    @GetMapping("/pixel/{trackingId}")
-    public ResponseEntity<byte[]> trackEmailOpen(@PathVariable String trackingId,
+    @GetMapping("/pixel/{pixelId}")
+    public ResponseEntity<byte[]> trackEmailOpen(@PathVariable String pixelId,
                                                 HttpServletRequest request) {
         try {
-            trackingService.trackEmailOpen(trackingId, request);
+            trackingService.trackEmailOpen(pixelId, TrackingService.ClientInfo.of(request));
             
             // Return a 1x1 transparent pixel
             byte[] pixel = Base64.getDecoder().decode(
@@ -45,16 +46,12 @@ public class TrackingController {
     public ResponseEntity<Void> trackLinkClick(@PathVariable String trackingToken,
                                               HttpServletRequest request) {
         try {
-            trackingService.trackLinkClick(trackingToken, request);
+            Optional<String> originalUrl = trackingService.trackLinkClick(trackingToken,
+                    TrackingService.ClientInfo.of(request));
             
-            // Decode the original URL and redirect
-            String decodedToken = new String(Base64.getDecoder().decode(trackingToken));
-            String[] parts = decodedToken.split(":");
-            
-            if (parts.length >= 3) {
-                String originalUrl = parts[2];
+            if (originalUrl.isPresent()) {
                 return ResponseEntity.status(HttpStatus.FOUND)
-                        .header("Location", originalUrl)
+                        .header("Location", originalUrl.get())
                         .build();
             }
             
@@ -25,6 +25,7 @@ public class CampaignAnalyticsDto {
     private List<HourlyStatsDto> hourlyStats;
     private List<DeviceStatsDto> deviceStats;
     private List<LocationStatsDto> locationStats;
+    private List<LinkStatsDto> linkStats;
     
     @Data
     public static class HourlyStatsDto {
@@ -46,4 +47,12 @@ public class CampaignAnalyticsDto {
         private Integer count;
         private Double percentage;
     }
+    
+    @Data
+    public static class LinkStatsDto {
+        // Null for clicks recorded before links were indexed
+        private Integer linkIndex;
+        private String url;
+        private Integer clicks;
+    }
 }
@@ -23,6 +23,8 @@ public class CampaignDto {
     private String content;
     private Campaign.CampaignType type;
     private Campaign.CampaignStatus status;
+    private Integer sendConcurrency;
+    private Boolean batchEnvelope;
     private LocalDateTime scheduledAt;
     private LocalDateTime sentAt;
     private LocalDateTime createdAt;
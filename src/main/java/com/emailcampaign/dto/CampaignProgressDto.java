@@ -0,0 +1,19 @@
+package com.emailcampaign.dto;
+
+import com.emailcampaign.model.Campaign;
+import lombok.Data;
+
+import java.time.LocalDateTime;
+
+@Data
+public class CampaignProgressDto {
+    
+    private Long campaignId;
+    private Campaign.CampaignStatus status;
+    private Integer totalRecipients;
+    private Integer sentCount;
+    private Integer failedCount;
+    private Integer remainingCount;
+    private Double throughputPerSecond;
+    private LocalDateTime sentAt;
+}
@@ -12,7 +12,8 @@ import java.time.LocalDateTime;
 import java.util.List;
 
 @Entity
-@Table(name = "campaigns")
+@Table(name = "campaigns",
+        indexes = @Index(name = "idx_campaigns_status_scheduled_at", columnList = "status, scheduled_at"))
 @Data
 @NoArgsConstructor
 @AllArgsConstructor
@@ -50,6 +51,23 @@ public class Campaign {
     @Column(nullable = false)
     private CampaignStatus status = CampaignStatus.DRAFT;
     
+    @Column(name = "send_concurrency")
+    private Integer sendConcurrency;
+    
+    // No tracking or merge fields: the body is built once and sent with many RCPT TOs per transaction
+    @Column(name = "batch_envelope", nullable = false, columnDefinition = "boolean default false")
+    private boolean batchEnvelope;
+    
+    // Send progress, maintained by bulk updates at send checkpoints
+    @Column(name = "total_recipients", insertable = false, updatable = false)
+    private Integer totalRecipients;
+    
+    @Column(name = "sent_count", insertable = false, updatable = false)
+    private Integer sentCount;
+    
+    @Column(name = "failed_count", insertable = false, updatable = false)
+    private Integer failedCount;
+    
     @Column(name = "scheduled_at")
     private LocalDateTime scheduledAt;
     
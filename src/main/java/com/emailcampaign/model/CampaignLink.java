@@ -0,0 +1,37 @@
+package com.emailcampaign.model;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.hibernate.annotations.OnDelete;
+import org.hibernate.annotations.OnDeleteAction;
+
+/**
+ * A distinct tracked URL of a campaign and the index click tokens and click events refer to it by.
+ * Indexes are assigned when the campaign is prepared for sending and never change.
+ */
+@Entity
+@Table(name = "campaign_links",
+        uniqueConstraints = @UniqueConstraint(name = "uk_campaign_links_campaign_index",
+                columnNames = {"campaign_id", "link_index"}))
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class CampaignLink {
+    
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+    
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "campaign_id", nullable = false)
+    @OnDelete(action = OnDeleteAction.CASCADE)
+    private Campaign campaign;
+    
+    @Column(name = "link_index", nullable = false)
+    private int linkIndex;
+    
+    @Column(nullable = false, columnDefinition = "TEXT")
+    private String url;
+}
@@ -6,6 +6,7 @@ import lombok.Data;
 import lombok.NoArgsConstructor;
 
 import java.time.LocalDateTime;
+import java.util.Locale;
 
 @Entity
 @Table(name = "email_tracking")
@@ -15,7 +16,8 @@ import java.time.LocalDateTime;
 public class EmailTracking {
     
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "email_tracking_seq")
+    @SequenceGenerator(name = "email_tracking_seq", sequenceName = "email_tracking_seq", allocationSize = 50)
     private Long id;
     
     @Column(name = "tracking_id", unique = true, nullable = false)
@@ -34,11 +36,13 @@ public class EmailTracking {
     @Column(name = "user_agent")
     private String userAgent;
     
+    @Convert(converter = DeviceTypeConverter.class)
     @Column(name = "device_type")
-    private String deviceType;
+    private DeviceType deviceType;
     
+    @Convert(converter = EmailClientConverter.class)
     @Column(name = "email_client")
-    private String emailClient;
+    private EmailClient emailClient;
     
     @Column(name = "location")
     private String location;
@@ -46,6 +50,10 @@ public class EmailTracking {
     @Column(name = "link_url")
     private String linkUrl;
     
+    // Index into campaign_links; clicks recorded before that table only have link_url
+    @Column(name = "link_index")
+    private Integer linkIndex;
+    
     @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "campaign_id", nullable = false)
     private Campaign campaign;
@@ -57,4 +65,81 @@ public class EmailTracking {
     public enum EventType {
         SENT, DELIVERED, OPENED, CLICKED, BOUNCED, COMPLAINED, UNSUBSCRIBED
     }
+    
+    // PROXY: the request came from an image proxy, so the reader's device is not known
+    public enum DeviceType {
+        UNKNOWN("Unknown"), DESKTOP("Desktop"), MOBILE("Mobile"), TABLET("Tablet"), PROXY("Proxy");
+        
+        // As shown in analytics, and as older rows store it
+        private final String label;
+        
+        DeviceType(String label) {
+            this.label = label;
+        }
+        
+        public String getLabel() {
+            return label;
+        }
+    }
+    
+    public enum EmailClient {
+        UNKNOWN("Unknown"), GMAIL("Gmail"), APPLE_MAIL("Apple Mail"), OUTLOOK("Outlook"), YAHOO_MAIL("Yahoo Mail"),
+        THUNDERBIRD("Thunderbird"), SAMSUNG_EMAIL("Samsung Email"), WINDOWS_MAIL("Windows Mail");
+        
+        private final String label;
+        
+        EmailClient(String label) {
+            this.label = label;
+        }
+        
+        public String getLabel() {
+            return label;
+        }
+    }
+    
+    @Converter
+    public static class DeviceTypeConverter extends LabelConverter<DeviceType> {
+        public DeviceTypeConverter() {
+            super(DeviceType.class, DeviceType.UNKNOWN);
+        }
+    }
+    
+    @Converter
+    public static class EmailClientConverter extends LabelConverter<EmailClient> {
+        public EmailClientConverter() {
+            super(EmailClient.class, EmailClient.UNKNOWN);
+        }
+    }
+    
+    /**
+     * Stores the enum's name, like {@code @Enumerated(EnumType.STRING)}, but also reads the display
+     * names older rows hold, such as "Apple Mail".
+     */
+    abstract static class LabelConverter<E extends Enum<E>> implements AttributeConverter<E, String> {
+        
+        private final Class<E> type;
+        private final E unknown;
+        
+        LabelConverter(Class<E> type, E unknown) {
+            this.type = type;
+            this.unknown = unknown;
+        }
+        
+        @Override
+        public String convertToDatabaseColumn(E value) {
+            return value != null ? value.name() : null;
+        }
+        
+        @Override
+        public E convertToEntityAttribute(String value) {
+            if (value == null) {
+                return null;
+            }
+            try {
+                return Enum.valueOf(type, value.trim().toUpperCase(Locale.ROOT).replace(' ', '_'));
+            } catch (IllegalArgumentException e) {
+                return unknown;
+            }
+        }
+    }
 }
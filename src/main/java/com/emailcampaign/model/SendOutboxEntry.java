@@ -0,0 +1,56 @@
+package com.emailcampaign.model;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.hibernate.annotations.OnDelete;
+import org.hibernate.annotations.OnDeleteAction;
+
+import java.time.LocalDateTime;
+
+@Entity
+@Table(name = "send_outbox",
+        uniqueConstraints = @UniqueConstraint(name = "uk_send_outbox_campaign_recipient",
+                columnNames = {"campaign_id", "recipient_id"}),
+        indexes = @Index(name = "idx_send_outbox_campaign_state", columnList = "campaign_id, state, id"))
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class SendOutboxEntry {
+    
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+    
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "campaign_id", nullable = false)
+    @OnDelete(action = OnDeleteAction.CASCADE)
+    private Campaign campaign;
+    
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "recipient_id", nullable = false)
+    @OnDelete(action = OnDeleteAction.CASCADE)
+    private Recipient recipient;
+    
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false)
+    private OutboxState state = OutboxState.PENDING;
+    
+    @Column(nullable = false)
+    private int attempts = 0;
+    
+    // Earliest time a retry may be sent; null until the first transient failure
+    @Column(name = "next_attempt_at")
+    private LocalDateTime nextAttemptAt;
+    
+    @Column(name = "created_at", nullable = false)
+    private LocalDateTime createdAt = LocalDateTime.now();
+    
+    @Column(name = "updated_at")
+    private LocalDateTime updatedAt;
+    
+    public enum OutboxState {
+        PENDING, SENT, FAILED, CANCELLED, SUPPRESSED
+    }
+}
@@ -0,0 +1,60 @@
+package com.emailcampaign.model;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.hibernate.annotations.OnDelete;
+import org.hibernate.annotations.OnDeleteAction;
+
+import java.time.LocalDateTime;
+
+/**
+ * A contiguous range of a campaign's outbox ids that one instance at a time leases and sends.
+ */
+@Entity
+@Table(name = "send_shards",
+        uniqueConstraints = @UniqueConstraint(name = "uk_send_shards_campaign_index",
+                columnNames = {"campaign_id", "shard_index"}),
+        indexes = @Index(name = "idx_send_shards_campaign_state", columnList = "campaign_id, state, lease_expires_at"))
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class SendShard {
+    
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+    
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "campaign_id", nullable = false)
+    @OnDelete(action = OnDeleteAction.CASCADE)
+    private Campaign campaign;
+    
+    @Column(name = "shard_index", nullable = false)
+    private int shardIndex;
+    
+    @Column(name = "first_outbox_id", nullable = false)
+    private Long firstOutboxId;
+    
+    @Column(name = "last_outbox_id", nullable = false)
+    private Long lastOutboxId;
+    
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false)
+    private ShardState state = ShardState.OPEN;
+    
+    @Column(name = "lease_owner")
+    private String leaseOwner;
+    
+    // The shard can be leased by any instance once this has passed
+    @Column(name = "lease_expires_at")
+    private LocalDateTime leaseExpiresAt;
+    
+    @Column(name = "updated_at")
+    private LocalDateTime updatedAt;
+    
+    public enum ShardState {
+        OPEN, DONE
+    }
+}
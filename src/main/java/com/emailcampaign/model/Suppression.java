@@ -0,0 +1,38 @@
+package com.emailcampaign.model;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+/**
+ * An address that must not be mailed from any list. Emails are stored trimmed and lower-cased.
+ */
+@Entity
+@Table(name = "suppressions",
+        uniqueConstraints = @UniqueConstraint(name = "uk_suppressions_email", columnNames = "email"))
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class Suppression {
+    
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+    
+    @Column(nullable = false)
+    private String email;
+    
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false)
+    private Reason reason;
+    
+    @Column(name = "created_at", nullable = false)
+    private LocalDateTime createdAt = LocalDateTime.now();
+    
+    public enum Reason {
+        UNSUBSCRIBED, BOUNCED, COMPLAINED
+    }
+}
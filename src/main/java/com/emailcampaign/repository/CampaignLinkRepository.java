@@ -0,0 +1,23 @@
+package com.emailcampaign.repository;
+
+import com.emailcampaign.model.CampaignLink;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.List;
+
+@Repository
+public interface CampaignLinkRepository extends JpaRepository<CampaignLink, Long> {
+    
+    List<CampaignLink> findByCampaignIdOrderByLinkIndex(Long campaignId);
+    
+    // Instances preparing the same campaign concurrently assign the same indexes; the first insert wins
+    @Modifying
+    @Transactional
+    @Query(value = "INSERT INTO campaign_links (campaign_id, link_index, url) VALUES (:campaignId, :linkIndex, :url) " +
+            "ON CONFLICT (campaign_id, link_index) DO NOTHING", nativeQuery = true)
+    int insertIfAbsent(Long campaignId, int linkIndex, String url);
+}
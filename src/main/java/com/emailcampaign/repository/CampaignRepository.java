@@ -5,11 +5,14 @@ import com.emailcampaign.model.User;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.time.LocalDateTime;
 import java.util.List;
+import java.util.Optional;
 
 @Repository
 public interface CampaignRepository extends JpaRepository<Campaign, Long> {
@@ -18,8 +21,44 @@ public interface CampaignRepository extends JpaRepository<Campaign, Long> {
     
     Page<Campaign> findByUserAndStatus(User user, Campaign.CampaignStatus status, Pageable pageable);
     
+    List<Campaign> findByStatus(Campaign.CampaignStatus status);
+    
     List<Campaign> findByStatusAndScheduledAtBefore(Campaign.CampaignStatus status, LocalDateTime dateTime);
     
+    // Skips rows another instance has already locked, so each due campaign is claimed by one instance
+    @Query(value = "SELECT * FROM campaigns WHERE status = 'SCHEDULED' AND scheduled_at <= :now " +
+            "ORDER BY scheduled_at LIMIT :limit FOR UPDATE SKIP LOCKED", nativeQuery = true)
+    List<Campaign> lockDueScheduled(LocalDateTime now, int limit);
+    
+    @Query("SELECT MIN(c.scheduledAt) FROM Campaign c WHERE c.status = 'SCHEDULED'")
+    Optional<LocalDateTime> findNextScheduledAt();
+    
+    @Query("SELECT c.status FROM Campaign c WHERE c.id = :id")
+    Optional<Campaign.CampaignStatus> findStatusById(Long id);
+    
+    @Modifying
+    @Transactional
+    @Query("UPDATE Campaign c SET c.status = :to, c.updatedAt = CURRENT_TIMESTAMP WHERE c.id = :id AND c.status = :from")
+    int updateStatus(Long id, Campaign.CampaignStatus from, Campaign.CampaignStatus to);
+    
+    @Modifying
+    @Transactional
+    @Query("UPDATE Campaign c SET c.status = 'SENDING', c.sentAt = :sentAt, c.updatedAt = CURRENT_TIMESTAMP " +
+            "WHERE c.id = :id AND c.status = :from")
+    int startSending(Long id, Campaign.CampaignStatus from, LocalDateTime sentAt);
+    
+    @Modifying
+    @Transactional
+    @Query(value = "UPDATE campaigns SET total_recipients = :total, sent_count = :sent, failed_count = :failed WHERE id = :id",
+            nativeQuery = true)
+    int setProgress(Long id, int total, int sent, int failed);
+    
+    @Modifying
+    @Transactional
+    @Query(value = "UPDATE campaigns SET sent_count = COALESCE(sent_count, 0) + :sent, " +
+            "failed_count = COALESCE(failed_count, 0) + :failed WHERE id = :id", nativeQuery = true)
+    int addProgress(Long id, int sent, int failed);
+    
     @Query("SELECT c FROM Campaign c WHERE c.user = :user AND c.name LIKE %:name%")
     Page<Campaign> findByUserAndNameContaining(User user, String name, Pageable pageable);
     
@@ -10,6 +10,7 @@ import org.springframework.data.jpa.repository.Query;
 import org.springframework.stereotype.Repository;
 
 import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
@@ -18,6 +19,8 @@ public interface EmailTrackingRepository extends JpaRepository<EmailTracking, Lo
     
     Optional<EmailTracking> findByTrackingId(String trackingId);
     
+    List<EmailTracking> findByTrackingIdIn(Collection<String> trackingIds);
+    
     List<EmailTracking> findByCampaign(Campaign campaign);
     
     List<EmailTracking> findByCampaignAndEventType(Campaign campaign, EmailTracking.EventType eventType);
@@ -30,6 +33,17 @@ public interface EmailTrackingRepository extends JpaRepository<EmailTracking, Lo
     @Query("SELECT et FROM EmailTracking et WHERE et.campaign = :campaign AND et.eventTime BETWEEN :startDate AND :endDate")
     List<EmailTracking> findByCampaignAndEventTimeBetween(Campaign campaign, LocalDateTime startDate, LocalDateTime endDate);
     
+    // Clicks per link: [linkIndex, count], and [linkUrl, count] for clicks recorded before link indexes
+    @Query("SELECT et.linkIndex, COUNT(et) FROM EmailTracking et WHERE et.campaign = :campaign " +
+            "AND et.eventType = CLICKED AND et.linkIndex IS NOT NULL " +
+            "GROUP BY et.linkIndex ORDER BY et.linkIndex")
+    List<Object[]> countClicksByLinkIndex(Campaign campaign);
+    
+    @Query("SELECT et.linkUrl, COUNT(et) FROM EmailTracking et WHERE et.campaign = :campaign " +
+            "AND et.eventType = CLICKED AND et.linkIndex IS NULL " +
+            "AND et.linkUrl IS NOT NULL GROUP BY et.linkUrl")
+    List<Object[]> countClicksByLinkUrl(Campaign campaign);
+    
     @Query("SELECT DISTINCT et.recipient FROM EmailTracking et WHERE et.campaign = :campaign AND et.eventType = :eventType")
     List<Recipient> findDistinctRecipientsByCampaignAndEventType(Campaign campaign, EmailTracking.EventType eventType);
 }
@@ -5,9 +5,14 @@ import com.emailcampaign.model.RecipientList;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
 
 @Repository
@@ -20,6 +25,14 @@ public interface RecipientRepository extends JpaRepository<Recipient, Long> {
     @Query("SELECT r FROM Recipient r WHERE r.recipientList = :recipientList AND r.status = :status")
     Page<Recipient> findByRecipientListAndStatus(RecipientList recipientList, Recipient.RecipientStatus status, Pageable pageable);
     
+    @Query("SELECT r FROM Recipient r WHERE r.recipientList = :recipientList AND r.id > :lastId ORDER BY r.id")
+    List<Recipient> findChunkByRecipientList(RecipientList recipientList, Long lastId, Pageable pageable);
+    
+    @Modifying
+    @Transactional
+    @Query("UPDATE Recipient r SET r.status = :status, r.updatedAt = :updatedAt WHERE r.id IN :ids")
+    int updateStatus(Collection<Long> ids, Recipient.RecipientStatus status, LocalDateTime updatedAt);
+    
     @Query("SELECT COUNT(r) FROM Recipient r WHERE r.recipientList = :recipientList AND r.status = 'ACTIVE'")
     long countActiveByRecipientList(RecipientList recipientList);
     
@@ -0,0 +1,65 @@
+package com.emailcampaign.repository;
+
+import com.emailcampaign.model.SendOutboxEntry;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+
+@Repository
+public interface SendOutboxRepository extends JpaRepository<SendOutboxEntry, Long> {
+    
+    // Globally suppressed addresses are left out, whatever their status on this list
+    @Modifying
+    @Transactional
+    @Query(value = "INSERT INTO send_outbox (campaign_id, recipient_id, state, attempts, created_at) " +
+            "SELECT :campaignId, r.id, 'PENDING', 0, now() FROM recipients r " +
+            "WHERE r.recipient_list_id = :recipientListId AND r.status = 'ACTIVE' " +
+            "AND NOT EXISTS (SELECT 1 FROM suppressions s WHERE s.email = lower(trim(r.email))) " +
+            "ON CONFLICT (campaign_id, recipient_id) DO NOTHING", nativeQuery = true)
+    int enqueueActiveRecipients(Long campaignId, Long recipientListId);
+    
+    @Query("SELECT o FROM SendOutboxEntry o JOIN FETCH o.recipient " +
+            "WHERE o.campaign.id = :campaignId AND o.state = :state AND o.id > :lastId AND o.id <= :maxId " +
+            "AND (o.nextAttemptAt IS NULL OR o.nextAttemptAt <= CURRENT_TIMESTAMP) ORDER BY o.id")
+    List<SendOutboxEntry> findDueChunkInRange(Long campaignId, SendOutboxEntry.OutboxState state, 
+                                              Long lastId, Long maxId, Pageable pageable);
+    
+    @Modifying
+    @Transactional
+    @Query("UPDATE SendOutboxEntry o SET o.state = :state, o.attempts = o.attempts + 1, o.updatedAt = :updatedAt " +
+            "WHERE o.id IN :ids")
+    int updateState(Collection<Long> ids, SendOutboxEntry.OutboxState state, LocalDateTime updatedAt);
+    
+    // Exponential backoff on the attempts made so far, with per-row jitter of up to half the delay
+    @Modifying
+    @Transactional
+    @Query(value = "UPDATE send_outbox SET attempts = attempts + 1, updated_at = now(), " +
+            "next_attempt_at = now() + make_interval(secs => " +
+            "LEAST(:maxBackoffSeconds, :initialBackoffSeconds * power(2, attempts)) * (0.5 + random() / 2)) " +
+            "WHERE id IN (:ids)", nativeQuery = true)
+    int scheduleRetry(Collection<Long> ids, double initialBackoffSeconds, double maxBackoffSeconds);
+    
+    @Modifying
+    @Transactional
+    @Query("UPDATE SendOutboxEntry o SET o.state = :to, o.updatedAt = :updatedAt " +
+            "WHERE o.campaign.id = :campaignId AND o.state = :from")
+    int updateStateByCampaignId(Long campaignId, SendOutboxEntry.OutboxState from, SendOutboxEntry.OutboxState to,
+                                LocalDateTime updatedAt);
+    
+    // [state, count] of the campaign's entries
+    @Query("SELECT o.state, COUNT(o) FROM SendOutboxEntry o WHERE o.campaign.id = :campaignId GROUP BY o.state")
+    List<Object[]> countByCampaignIdGroupByState(Long campaignId);
+    
+    @Query("SELECT COUNT(o) FROM SendOutboxEntry o WHERE o.campaign.id = :campaignId AND o.state = :state")
+    long countByCampaignIdAndState(Long campaignId, SendOutboxEntry.OutboxState state);
+    
+    boolean existsByCampaignIdAndRecipientIdAndState(Long campaignId, Long recipientId, 
+                                                     SendOutboxEntry.OutboxState state);
+}
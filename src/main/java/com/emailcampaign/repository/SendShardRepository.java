@@ -0,0 +1,86 @@
+package com.emailcampaign.repository;
+
+import com.emailcampaign.model.Campaign;
+import com.emailcampaign.model.SendShard;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.List;
+import java.util.Optional;
+
+@Repository
+public interface SendShardRepository extends JpaRepository<SendShard, Long> {
+    
+    // Splits the campaign's outbox entries above the last shard's range into ranges of :shardSize
+    // consecutive ids, numbered on from the last shard; the ranges only depend on the outbox and the
+    // existing shards, so concurrent or repeated calls agree
+    @Modifying
+    @Transactional
+    @Query(value = "INSERT INTO send_shards (campaign_id, shard_index, first_outbox_id, last_outbox_id, state, updated_at) " +
+            "SELECT :campaignId, next_index + bucket, MIN(id), MAX(id), 'OPEN', now() FROM " +
+            "(SELECT o.id, s.next_index, (row_number() OVER (ORDER BY o.id) - 1) / :shardSize AS bucket " +
+            "FROM send_outbox o, (SELECT COALESCE(MAX(last_outbox_id), 0) AS covered, " +
+            "COALESCE(MAX(shard_index) + 1, 0) AS next_index FROM send_shards WHERE campaign_id = :campaignId) s " +
+            "WHERE o.campaign_id = :campaignId AND o.id > s.covered) ranges GROUP BY next_index, bucket " +
+            "ON CONFLICT (campaign_id, shard_index) DO NOTHING", nativeQuery = true)
+    int createShards(Long campaignId, int shardSize);
+    
+    boolean existsByCampaignId(Long campaignId);
+    
+    // Skips shards another instance is claiming right now; expired leases are up for grabs
+    @Query(value = "SELECT * FROM send_shards WHERE campaign_id = :campaignId AND state = 'OPEN' " +
+            "AND (lease_expires_at IS NULL OR lease_expires_at <= now() OR lease_owner = :owner) " +
+            "ORDER BY shard_index LIMIT 1 FOR UPDATE SKIP LOCKED", nativeQuery = true)
+    Optional<SendShard> lockLeasable(Long campaignId, String owner);
+    
+    @Modifying
+    @Transactional
+    @Query(value = "UPDATE send_shards SET lease_owner = :owner, " +
+            "lease_expires_at = now() + make_interval(secs => :leaseSeconds), updated_at = now() " +
+            "WHERE id = :id", nativeQuery = true)
+    int acquireLease(Long id, String owner, int leaseSeconds);
+    
+    @Modifying
+    @Transactional
+    @Query(value = "UPDATE send_shards SET lease_expires_at = now() + make_interval(secs => :leaseSeconds), " +
+            "updated_at = now() WHERE id = :id AND lease_owner = :owner", nativeQuery = true)
+    int renewLease(Long id, String owner, int leaseSeconds);
+    
+    // Closes the shard once nothing in its range is pending; otherwise it becomes leasable again
+    // when its earliest retry is due (immediately if something is due already)
+    @Modifying
+    @Transactional
+    @Query(value = "UPDATE send_shards s SET lease_owner = NULL, updated_at = now(), " +
+            "state = CASE WHEN p.pending = 0 THEN 'DONE' ELSE 'OPEN' END, lease_expires_at = p.next_attempt_at " +
+            "FROM (SELECT COUNT(o.id) AS pending, " +
+            "CASE WHEN bool_or(o.next_attempt_at IS NULL) THEN NULL ELSE MIN(o.next_attempt_at) END AS next_attempt_at " +
+            "FROM send_shards x LEFT JOIN send_outbox o ON o.campaign_id = x.campaign_id AND o.state = 'PENDING' " +
+            "AND o.id BETWEEN x.first_outbox_id AND x.last_outbox_id WHERE x.id = :id) p " +
+            "WHERE s.id = :id AND s.lease_owner = :owner", nativeQuery = true)
+    int releaseLease(Long id, String owner);
+    
+    @Modifying
+    @Transactional
+    @Query("UPDATE SendShard s SET s.state = 'DONE', s.leaseOwner = NULL, s.updatedAt = CURRENT_TIMESTAMP " +
+            "WHERE s.campaign.id = :campaignId AND s.state = 'OPEN'")
+    int closeShards(Long campaignId);
+    
+    long countByCampaignIdAndState(Long campaignId, SendShard.ShardState state);
+    
+    // Pending entries no shard's range covers, so no lease would ever send them
+    @Query(value = "SELECT COUNT(*) FROM send_outbox o WHERE o.campaign_id = :campaignId AND o.state = 'PENDING' " +
+            "AND NOT EXISTS (SELECT 1 FROM send_shards s WHERE s.campaign_id = o.campaign_id " +
+            "AND o.id BETWEEN s.first_outbox_id AND s.last_outbox_id)", nativeQuery = true)
+    long countPendingOutsideShards(Long campaignId);
+    
+    @Query(value = "SELECT EXTRACT(EPOCH FROM MIN(lease_expires_at) - now()) FROM send_shards " +
+            "WHERE campaign_id = :campaignId AND state = 'OPEN'", nativeQuery = true)
+    Double secondsUntilLeasable(Long campaignId);
+    
+    @Query("SELECT DISTINCT s.campaign FROM SendShard s WHERE s.campaign.status = 'SENDING' AND s.state = 'OPEN' " +
+            "AND (s.leaseExpiresAt IS NULL OR s.leaseExpiresAt <= CURRENT_TIMESTAMP)")
+    List<Campaign> findSendingCampaignsWithLeasableShards();
+}
@@ -0,0 +1,40 @@
+package com.emailcampaign.repository;
+
+import com.emailcampaign.model.Suppression;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Collection;
+import java.util.List;
+
+@Repository
+public interface SuppressionRepository extends JpaRepository<Suppression, Long> {
+    
+    @Modifying
+    @Transactional
+    @Query(value = "INSERT INTO suppressions (email, reason, created_at) VALUES (:email, :reason, now()) " +
+            "ON CONFLICT (email) DO NOTHING", nativeQuery = true)
+    int suppress(String email, String reason);
+    
+    @Modifying
+    @Transactional
+    @Query(value = "INSERT INTO suppressions (email, reason, created_at) " +
+            "SELECT DISTINCT lower(trim(email)), :reason, now() FROM recipients WHERE id IN (:recipientIds) " +
+            "ON CONFLICT (email) DO NOTHING", nativeQuery = true)
+    int suppressRecipients(Collection<Long> recipientIds, String reason);
+    
+    // Carries over addresses suppressed on their own list before the global index existed
+    @Modifying
+    @Transactional
+    @Query(value = "INSERT INTO suppressions (email, reason, created_at) " +
+            "SELECT DISTINCT ON (lower(trim(email))) lower(trim(email)), status, COALESCE(unsubscribed_at, now()) " +
+            "FROM recipients WHERE status <> 'ACTIVE' ORDER BY lower(trim(email)), id " +
+            "ON CONFLICT (email) DO NOTHING", nativeQuery = true)
+    int backfillFromRecipients();
+    
+    List<Suppression> findByIdGreaterThanOrderById(Long id, Pageable pageable);
+}
@@ -0,0 +1,226 @@
+package com.emailcampaign.service;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * AIMD concurrency limits for sending: one for the SMTP relay and one per recipient domain, and a
+ * send needs room under both. A limit grows by one per limit's worth of fast, successful sends
+ * while it is in use, and is cut by {@code app.send.adaptive.backoff-ratio} when a send fails
+ * transiently (4xx replies, timeouts, dropped connections) or the relay takes longer than
+ * {@code app.send.adaptive.latency-threshold-ms} to accept it. Only the SMTP transmit is timed:
+ * rendering, waiting for a pooled connection and recording the send are local work. Sends that started before the last cut do not
+ * cut it again, so one burst of failures counts once.
+ * <p>
+ * The limits of the relay and of the domains configured under {@code app.throttle.domains} are
+ * exported as the {@code email.send.concurrency.limit} gauge.
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class AdaptiveConcurrencyLimiter {
+
+    private final DomainRateLimiter rateLimiter;
+    private final MeterRegistry meterRegistry;
+
+    @Value("${app.send.adaptive.enabled:true}")
+    private boolean enabled;
+
+    @Value("${app.send.adaptive.initial-limit:10}")
+    private int initialLimit;
+
+    @Value("${app.send.adaptive.min-limit:1}")
+    private int minLimit;
+
+    @Value("${app.send.adaptive.max-limit:200}")
+    private int maxLimit;
+
+    @Value("${app.send.adaptive.latency-threshold-ms:5000}")
+    private long latencyThresholdMs;
+
+    @Value("${app.send.adaptive.backoff-ratio:0.5}")
+    private double backoffRatio;
+
+    @Value("${spring.mail.host:localhost}")
+    private String relayHost;
+
+    private final Map<String, Limit> domainLimits = new ConcurrentHashMap<>();
+    private Limit relayLimit;
+
+    @PostConstruct
+    public void init() {
+        if (!enabled) {
+            return;
+        }
+        relayLimit = new Limit();
+        registerGauge("relay", relayHost, relayLimit);
+        log.info("Adaptive send concurrency starting at {} (min {}, max {}) for relay {} and each domain",
+                initialLimit, minLimit, maxLimit, relayHost);
+    }
+
+    /**
+     * Takes a slot under the relay's and the domain's limits.
+     *
+     * @return null if either limit is reached
+     */
+    public Slot tryAcquire(String domain) {
+        if (!enabled) {
+            return new Slot(null, null);
+        }
+        if (!relayLimit.tryAcquire()) {
+            return null;
+        }
+        // Acquired under the map's lock for the domain, so eviction cannot drop the limit in between
+        boolean[] acquired = new boolean[1];
+        Limit domainLimit = domainLimits.compute(domain, (key, limit) -> {
+            Limit current = limit != null ? limit : createDomainLimit(key);
+            acquired[0] = current.tryAcquire();
+            return current;
+        });
+        if (!acquired[0]) {
+            relayLimit.cancel();
+            return null;
+        }
+        return new Slot(relayLimit, domainLimit);
+    }
+
+    // Limits of unconfigured domains with nothing in flight are dropped; they start over when next used
+    @Scheduled(fixedDelay = 60000)
+    public void evictIdleLimits() {
+        for (String domain : domainLimits.keySet()) {
+            if (!domain.equals(rateLimiter.metricTag(domain))) {
+                domainLimits.computeIfPresent(domain, (key, limit) -> limit.isIdle() ? null : limit);
+            }
+        }
+    }
+
+    private Limit createDomainLimit(String domain) {
+        Limit limit = new Limit();
+        // Only configured domains get a gauge, so the number of series stays bounded
+        if (domain.equals(rateLimiter.metricTag(domain))) {
+            registerGauge("domain", domain, limit);
+        }
+        return limit;
+    }
+
+    private void registerGauge(String scope, String name, Limit limit) {
+        Gauge.builder("email.send.concurrency.limit", limit, Limit::getLimit)
+                .description("Concurrent sends currently allowed by the adaptive limit")
+                .tag("scope", scope)
+                .tag("name", name)
+                .strongReference(true)
+                .register(meterRegistry);
+    }
+
+    /**
+     * One send's share of the limits. Exactly one of the completion methods must be called.
+     */
+    public class Slot {
+
+        private final Limit relay;
+        private final Limit domain;
+        private long startedAt;
+        private long transmitNanos = -1;
+
+        Slot(Limit relay, Limit domain) {
+            this.relay = relay;
+            this.domain = domain;
+        }
+
+        /**
+         * Marks when the send began; a send that began before the last cut does not cut again.
+         */
+        public void start() {
+            startedAt = System.nanoTime();
+        }
+
+        /**
+         * Records how long the relay took to accept the message.
+         */
+        public void transmitted(long nanos) {
+            transmitNanos = nanos;
+        }
+
+        public void onSuccess() {
+            // Nothing reached the relay, e.g. every address of a batch was malformed
+            if (transmitNanos < 0) {
+                complete(false, false);
+                return;
+            }
+            boolean overloaded = transmitNanos > TimeUnit.MILLISECONDS.toNanos(latencyThresholdMs);
+            complete(overloaded, !overloaded);
+        }
+
+        public void onFailure(Exception e) {
+            // Permanent failures are about the recipient, not about load
+            boolean transientFailure = SmtpFailureClassifier.classify(e) == SmtpFailureClassifier.FailureType.TRANSIENT;
+            complete(transientFailure, false);
+        }
+
+        /**
+         * Gives the slot back without a send having been attempted.
+         */
+        public void cancel() {
+            if (relay != null) {
+                relay.cancel();
+                domain.cancel();
+            }
+        }
+
+        private void complete(boolean overloaded, boolean healthy) {
+            if (relay != null) {
+                relay.complete(startedAt, overloaded, healthy);
+                domain.complete(startedAt, overloaded, healthy);
+            }
+        }
+    }
+
+    private class Limit {
+
+        private double limit = initialLimit;
+        private int inFlight;
+        private long lastDecreaseAt = System.nanoTime();
+
+        synchronized boolean tryAcquire() {
+            if (inFlight >= (int) limit) {
+                return false;
+            }
+            inFlight++;
+            return true;
+        }
+
+        synchronized void cancel() {
+            inFlight--;
+        }
+
+        synchronized void complete(long startedAt, boolean overloaded, boolean healthy) {
+            boolean inUse = inFlight >= limit / 2;
+            inFlight--;
+            if (overloaded && startedAt - lastDecreaseAt > 0) {
+                limit = Math.max(minLimit, limit * backoffRatio);
+                lastDecreaseAt = System.nanoTime();
+            } else if (healthy && inUse) {
+                // An idle limit would grow without ever being tested
+                limit = Math.min(maxLimit, limit + 1 / limit);
+            }
+        }
+
+        synchronized double getLimit() {
+            return limit;
+        }
+
+        synchronized boolean isIdle() {
+            return inFlight == 0;
+        }
+    }
+}
@@ -8,11 +8,13 @@ import com.emailcampaign.repository.CampaignAnalyticsRepository;
 import com.emailcampaign.repository.EmailTrackingRepository;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Async;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import java.time.LocalDateTime;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.stream.Collectors;
@@ -26,6 +28,7 @@ public class AnalyticsService {
     
     private final EmailTrackingRepository emailTrackingRepository;
     private final CampaignAnalyticsRepository campaignAnalyticsRepository;
+    private final CampaignLinkService campaignLinkService;
     
     public CampaignAnalyticsDto getCampaignAnalytics(Campaign campaign) {
         CampaignAnalytics analytics = campaignAnalyticsRepository.findByCampaign(campaign)
@@ -51,10 +54,19 @@ public class AnalyticsService {
         dto.setHourlyStats(getHourlyStats(campaign));
         dto.setDeviceStats(getDeviceStats(campaign));
         dto.setLocationStats(getLocationStats(campaign));
+        dto.setLinkStats(getLinkStats(campaign));
         
         return dto;
     }
     
+    /**
+     * {@link #calculateCampaignAnalytics} on the analytics executor, off the request thread.
+     */
+    @Async("analyticsExecutor")
+    public void recalculateCampaignAnalytics(Campaign campaign) {
+        calculateCampaignAnalytics(campaign);
+    }
+    
     public CampaignAnalytics calculateCampaignAnalytics(Campaign campaign) {
         CampaignAnalytics analytics = campaignAnalyticsRepository.findByCampaign(campaign)
                 .orElse(new CampaignAnalytics());
@@ -124,7 +136,7 @@ public class AnalyticsService {
     private List<CampaignAnalyticsDto.DeviceStatsDto> getDeviceStats(Campaign campaign) {
         List<EmailTracking> trackings = emailTrackingRepository.findByCampaign(campaign);
         
-        Map<String, Long> deviceCounts = trackings.stream()
+        Map<EmailTracking.DeviceType, Long> deviceCounts = trackings.stream()
                 .filter(t -> t.getDeviceType() != null)
                 .collect(Collectors.groupingBy(
                         EmailTracking::getDeviceType,
@@ -136,7 +148,7 @@ public class AnalyticsService {
         return deviceCounts.entrySet().stream()
                 .map(entry -> {
                     CampaignAnalyticsDto.DeviceStatsDto dto = new CampaignAnalyticsDto.DeviceStatsDto();
-                    dto.setDeviceType(entry.getKey());
+                    dto.setDeviceType(entry.getKey().getLabel());
                     dto.setCount(entry.getValue().intValue());
                     dto.setPercentage(total > 0 ? (double) entry.getValue() / total * 100 : 0.0);
                     return dto;
@@ -167,6 +179,28 @@ public class AnalyticsService {
                 .collect(Collectors.toList());
     }
     
+    // Grouped by the small link index in the database, URLs filled in from campaign_links
+    private List<CampaignAnalyticsDto.LinkStatsDto> getLinkStats(Campaign campaign) {
+        List<CampaignAnalyticsDto.LinkStatsDto> stats = new ArrayList<>();
+        for (Object[] row : emailTrackingRepository.countClicksByLinkIndex(campaign)) {
+            Integer linkIndex = (Integer) row[0];
+            stats.add(linkStats(linkIndex, campaignLinkService.resolve(campaign.getId(), linkIndex).orElse(null),
+                    (Long) row[1]));
+        }
+        for (Object[] row : emailTrackingRepository.countClicksByLinkUrl(campaign)) {
+            stats.add(linkStats(null, (String) row[0], (Long) row[1]));
+        }
+        return stats;
+    }
+    
+    private static CampaignAnalyticsDto.LinkStatsDto linkStats(Integer linkIndex, String url, long clicks) {
+        CampaignAnalyticsDto.LinkStatsDto dto = new CampaignAnalyticsDto.LinkStatsDto();
+        dto.setLinkIndex(linkIndex);
+        dto.setUrl(url);
+        dto.setClicks((int) clicks);
+        return dto;
+    }
+    
     @Scheduled(fixedRate = 300000) // Run every 5 minutes
     public void updateCampaignAnalytics() {
         log.debug("Running scheduled analytics update");
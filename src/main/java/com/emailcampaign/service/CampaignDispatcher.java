@@ -0,0 +1,92 @@
+package com.emailcampaign.service;
+
+import com.emailcampaign.model.Campaign;
+import com.emailcampaign.repository.CampaignRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.concurrent.ScheduledFuture;
+
+/**
+ * Starts SCHEDULED campaigns when they fall due. Every poll dispatches what is due and looks up
+ * the next scheduled time; if it falls before the following poll, a one-off dispatch is timed
+ * for that instant, so campaigns start on time without polling the database more often.
+ * Campaigns scheduled less than a poll interval ahead from another instance may start up to
+ * one interval late.
+ * <p>
+ * Safe to run on every instance: {@link CampaignService#dispatchDueCampaigns} claims rows with
+ * {@code FOR UPDATE SKIP LOCKED}. Each poll also joins this instance to campaigns being sent
+ * that have leasable shards, see {@link SendShardService}.
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class CampaignDispatcher {
+
+    private final CampaignService campaignService;
+    private final CampaignRepository campaignRepository;
+    private final SendShardService sendShardService;
+    private final TaskScheduler taskScheduler;
+
+    @Value("${app.dispatch.poll-interval-ms:15000}")
+    private long pollIntervalMs;
+
+    @Value("${app.dispatch.batch-size:10}")
+    private int batchSize;
+
+    private ScheduledFuture<?> wakeUp;
+    private Instant wakeUpAt;
+
+    @Scheduled(fixedDelayString = "${app.dispatch.poll-interval-ms:15000}")
+    public void poll() {
+        dispatchDueCampaigns();
+        joinRunningSends();
+
+        campaignRepository.findNextScheduledAt().ifPresent(next -> {
+            Instant at = next.atZone(ZoneId.systemDefault()).toInstant();
+            if (at.isBefore(Instant.now().plusMillis(pollIntervalMs))) {
+                scheduleWakeUp(at);
+            }
+        });
+    }
+
+    private synchronized void scheduleWakeUp(Instant at) {
+        if (wakeUp != null && !wakeUp.isDone()) {
+            if (!wakeUpAt.isAfter(at)) {
+                return;
+            }
+            wakeUp.cancel(false);
+        }
+        wakeUpAt = at;
+        wakeUp = taskScheduler.schedule(this::dispatchDueCampaigns, at);
+    }
+
+    // A no-op for campaigns this instance is already sending
+    private void joinRunningSends() {
+        try {
+            for (Campaign campaign : sendShardService.findCampaignsToJoin()) {
+                campaignService.startSendLoop(campaign);
+            }
+        } catch (Exception e) {
+            log.error("Failed to join running campaign sends", e);
+        }
+    }
+
+    private void dispatchDueCampaigns() {
+        try {
+            int claimed;
+            do {
+                claimed = campaignService.dispatchDueCampaigns(batchSize);
+            } while (claimed == batchSize);
+        } catch (Exception e) {
+            log.error("Failed to dispatch scheduled campaigns at {}", LocalDateTime.now(), e);
+        }
+    }
+}
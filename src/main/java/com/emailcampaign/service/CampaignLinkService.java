@@ -0,0 +1,129 @@
+package com.emailcampaign.service;
+
+import com.emailcampaign.model.Campaign;
+import com.emailcampaign.model.CampaignLink;
+import com.emailcampaign.repository.CampaignLinkRepository;
+import com.emailcampaign.repository.CampaignRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * The {@code campaign_links} table: each distinct tracked URL of a campaign gets a small index
+ * once, when the campaign's template is compiled for sending, and click tokens and click events
+ * carry only that index.
+ * <p>
+ * Resolving an index to its URL reads the campaign's links once and keeps them for the
+ * {@code app.tracking.link-cache-size} most recently clicked campaigns, so a click normally needs
+ * no database access. Campaigns sent before the table existed have no rows; their indexes are
+ * positions among the tracked links of the content, as their tokens were issued.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class CampaignLinkService {
+
+    private static final int MAX_ASSIGN_ATTEMPTS = 3;
+
+    private final CampaignLinkRepository campaignLinkRepository;
+    private final CampaignRepository campaignRepository;
+
+    @Value("${app.tracking.link-cache-size:1000}")
+    private int cacheSize;
+
+    // Index to URL, per campaign
+    private final Map<Long, List<String>> links = Collections.synchronizedMap(
+            new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Long, List<String>> eldest) {
+                    return size() > cacheSize;
+                }
+            });
+
+    /**
+     * The index of each tracked URL of the campaign, assigning the next free index to URLs that
+     * have none yet. URLs keep their index when the campaign is compiled again.
+     */
+    public Map<String, Integer> assign(Campaign campaign) {
+        List<String> urls = CampaignTemplate.trackedLinks(campaign.getContent());
+        for (int attempt = 1; ; attempt++) {
+            List<String> byIndex = load(campaign.getId());
+            Map<String, Integer> indexes = new HashMap<>();
+            for (int i = byIndex.size() - 1; i >= 0; i--) {
+                if (byIndex.get(i) != null) {
+                    indexes.put(byIndex.get(i), i);
+                }
+            }
+
+            int next = byIndex.size();
+            int assigned = 0;
+            for (String url : new LinkedHashSet<>(urls)) {
+                if (!indexes.containsKey(url)) {
+                    campaignLinkRepository.insertIfAbsent(campaign.getId(), next++, url);
+                    assigned++;
+                }
+            }
+            if (assigned == 0) {
+                links.put(campaign.getId(), byIndex);
+                return indexes;
+            }
+            // Read back: another instance may have taken some of the indexes for other URLs
+            log.debug("Assigned {} link indexes for campaign {}", assigned, campaign.getId());
+            if (attempt == MAX_ASSIGN_ATTEMPTS) {
+                throw new RuntimeException("Could not assign link indexes for campaign " + campaign.getId());
+            }
+        }
+    }
+
+    public Optional<String> resolve(long campaignId, int linkIndex) {
+        List<String> urls = links.get(campaignId);
+        if (urls == null || linkIndex >= urls.size()) {
+            urls = reload(campaignId);
+        }
+        return linkIndex < urls.size() ? Optional.ofNullable(urls.get(linkIndex)) : Optional.empty();
+    }
+
+    /**
+     * Whether the URL is one of the campaign's tracked links. Legacy click tokens carry their URL
+     * unsigned, so it is only redirected to if it is.
+     */
+    public boolean isTrackedLink(long campaignId, String url) {
+        List<String> urls = links.get(campaignId);
+        if (urls == null) {
+            urls = reload(campaignId);
+        }
+        return urls.contains(url);
+    }
+
+    private List<String> reload(long campaignId) {
+        List<String> urls = load(campaignId);
+        if (urls.isEmpty()) {
+            urls = campaignRepository.findById(campaignId)
+                    .map(campaign -> CampaignTemplate.trackedLinks(campaign.getContent()))
+                    .orElse(List.of());
+        }
+        links.put(campaignId, urls);
+        return urls;
+    }
+
+    private List<String> load(Long campaignId) {
+        List<String> byIndex = new ArrayList<>();
+        for (CampaignLink link : campaignLinkRepository.findByCampaignIdOrderByLinkIndex(campaignId)) {
+            while (byIndex.size() < link.getLinkIndex()) {
+                byIndex.add(null);
+            }
+            byIndex.add(link.getUrl());
+        }
+        return byIndex;
+    }
+}
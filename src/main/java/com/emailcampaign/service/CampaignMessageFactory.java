@@ -0,0 +1,105 @@
+package com.emailcampaign.service;
+
+import com.emailcampaign.model.Campaign;
+import com.emailcampaign.model.Recipient;
+import jakarta.mail.MessagingException;
+import jakarta.mail.Session;
+import jakarta.mail.internet.InternetAddress;
+import jakarta.mail.internet.MimeMessage;
+import jakarta.mail.internet.MimeUtility;
+
+import java.io.UnsupportedEncodingException;
+
+/**
+ * Builds a campaign's messages from parts prepared once per send: the headers, encoded and
+ * folded, and the body template, whose static segments are already quoted-printable encoded.
+ * A message then costs its recipient's header and fields, and shares everything else.
+ * <p>
+ * Messages are a single {@code text/html} part, quoted-printable encoded.
+ */
+class CampaignMessageFactory {
+
+    private final Session session;
+    private final CampaignTemplate template;
+    private final String subject;
+    private final String from;
+    private final String replyTo;
+    // Thrown for every message, as building each one with a bad sender address would
+    private final MessagingException headerError;
+    private final byte[][] sharedBody;
+
+    CampaignMessageFactory(Session session, Campaign campaign, CampaignTemplate template) {
+        this.session = session;
+        this.template = template;
+
+        String encodedSubject = null;
+        String encodedFrom = null;
+        String encodedReplyTo = null;
+        MessagingException error = null;
+        try {
+            // Folded as the header would be, after "Subject: " and so on
+            encodedSubject = MimeUtility.fold(9, MimeUtility.encodeText(campaign.getSubject(), "UTF-8", null));
+            encodedFrom = MimeUtility.fold(6,
+                    new InternetAddress(campaign.getSenderEmail(), campaign.getSenderName(), "UTF-8").toString());
+            if (campaign.getReplyToEmail() != null && !campaign.getReplyToEmail().isEmpty()) {
+                encodedReplyTo = MimeUtility.fold(10, InternetAddress.toString(
+                        InternetAddress.parse(campaign.getReplyToEmail())));
+            }
+        } catch (MessagingException e) {
+            error = e;
+        } catch (UnsupportedEncodingException e) {
+            error = new MessagingException("Cannot encode headers of campaign " + campaign.getId(), e);
+        }
+        this.subject = encodedSubject;
+        this.from = encodedFrom;
+        this.replyTo = encodedReplyTo;
+        this.headerError = error;
+
+        this.sharedBody = template.isPersonalized() ? null : template.renderQuotedPrintable(null, null, null);
+    }
+
+    boolean usesUnsubscribeUrl() {
+        return template.usesUnsubscribeUrl();
+    }
+
+    boolean isPersonalized() {
+        return template.isPersonalized();
+    }
+
+    MimeMessage create(Recipient recipient, String trackingId, String unsubscribeToken) throws MessagingException {
+        MimeMessage message = prepare(template.renderQuotedPrintable(recipient, trackingId, unsubscribeToken));
+        message.setHeader("To", new InternetAddress(recipient.getEmail(), true).toString());
+        return message;
+    }
+
+    /**
+     * The message every recipient of a campaign without per-recipient fields gets, for sending to
+     * many envelope recipients. It is delivered to those the relay accepts even when it rejects
+     * some of them; the rejected ones are reported in the {@link jakarta.mail.SendFailedException}.
+     */
+    MimeMessage createShared() throws MessagingException {
+        if (sharedBody == null) {
+            throw new IllegalStateException("Template has per-recipient fields");
+        }
+        PreparedMimeMessage message = prepare(sharedBody);
+        message.setSendPartial(true);
+        // Recipients only go in the envelope, never in a header where they would see each other
+        message.setHeader("To", "undisclosed-recipients:;");
+        return message;
+    }
+
+    private PreparedMimeMessage prepare(byte[][] body) throws MessagingException {
+        if (headerError != null) {
+            throw headerError;
+        }
+        PreparedMimeMessage message = new PreparedMimeMessage(session, body);
+        message.setHeader("From", from);
+        if (replyTo != null) {
+            message.setHeader("Reply-To", replyTo);
+        }
+        message.setHeader("Subject", subject);
+        message.setHeader("Content-Type", "text/html; charset=UTF-8");
+        message.setHeader("Content-Transfer-Encoding", "quoted-printable");
+        return message;
+    }
+}
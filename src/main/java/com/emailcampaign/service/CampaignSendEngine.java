@@ -0,0 +1,313 @@
+package com.emailcampaign.service;
+
+import com.emailcampaign.model.Campaign;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BiConsumer;
+import java.util.function.BooleanSupplier;
+import java.util.function.Function;
+import java.util.function.LongConsumer;
+import java.util.function.ToIntFunction;
+
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class CampaignSendEngine {
+
+    private final DomainRateLimiter rateLimiter;
+    private final AdaptiveConcurrencyLimiter concurrencyLimiter;
+    private final SendMetrics sendMetrics;
+
+    @Value("${app.send.max-concurrency:200}")
+    private int maxConcurrency;
+
+    @Value("${app.send.campaign-concurrency:50}")
+    private int defaultCampaignConcurrency;
+
+    @Value("${app.send.priority.max-recipients:10}")
+    private int transactionalMaxRecipients;
+
+    @Value("${app.send.priority.concurrency:20}")
+    private int transactionalConcurrency;
+
+    // Producers blocked on a concurrency limit are woken by completing sends, this only bounds the wait
+    private static final long MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+
+    private ExecutorService executor;
+    private Semaphore globalPermits;
+    private Semaphore transactionalPermits;
+
+    @PostConstruct
+    public void init() {
+        executor = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("campaign-send-", 0).factory());
+        globalPermits = new Semaphore(maxConcurrency);
+        transactionalPermits = new Semaphore(transactionalConcurrency);
+        log.info("Campaign send engine started with global concurrency {} (+{} reserved for transactional sends)",
+                maxConcurrency, transactionalConcurrency);
+    }
+
+    /**
+     * Campaigns of at most {@code app.send.priority.max-recipients} recipients, such as single
+     * sends, are transactional.
+     */
+    public SendPriority priorityOf(Campaign campaign) {
+        Integer total = campaign.getTotalRecipients();
+        return total != null && total <= transactionalMaxRecipients ? SendPriority.TRANSACTIONAL : SendPriority.BULK;
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        executor.shutdown();
+        if (!executor.awaitTermination(30, TimeUnit.SECONDS)) {
+            log.warn("Campaign send engine did not finish in-flight sends before shutdown");
+        }
+    }
+
+    /**
+     * Sends every item on its own virtual thread, bounded by both the global and the
+     * per-campaign concurrency limit; transactional campaigns have a global limit of their own.
+     * Items whose recipient domain is out of rate-limit tokens, or at its adaptive concurrency
+     * limit, are held back while other domains keep flowing. Blocks until all submitted sends have
+     * completed; stops submitting early when {@code stopRequested} returns true, when interrupted
+     * or when the engine is shutting down.
+     */
+    public <T> SendResult send(Campaign campaign, Iterable<T> items, Function<T, String> domainOf,
+                               SendHandler<T> handler, BiConsumer<T, Exception> onFailure,
+                               BooleanSupplier stopRequested) {
+        return send(campaign, items, domainOf, item -> 1, handler, onFailure, stopRequested);
+    }
+
+    /**
+     * As above, for items that each reach {@code recipientsOf} recipients of their domain, such as
+     * multi-recipient envelopes; each takes that many rate-limit tokens.
+     */
+    public <T> SendResult send(Campaign campaign, Iterable<T> items, Function<T, String> domainOf,
+                               ToIntFunction<T> recipientsOf, SendHandler<T> handler,
+                               BiConsumer<T, Exception> onFailure, BooleanSupplier stopRequested) {
+        CampaignRun<T> run = new CampaignRun<>(campaign, domainOf, recipientsOf, handler, onFailure, stopRequested);
+
+        try {
+            for (T item : items) {
+                if (!run.offer(item)) {
+                    break;
+                }
+            }
+            run.drainDeferred();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            run.stopped = true;
+            log.warn("Send of campaign {} interrupted, waiting for in-flight messages", campaign.getName());
+        }
+
+        return run.awaitCompletion();
+    }
+
+    private int getCampaignConcurrency(Campaign campaign) {
+        Integer configured = campaign.getSendConcurrency();
+        int concurrency = configured != null && configured > 0 ? configured : defaultCampaignConcurrency;
+        return Math.min(concurrency, maxConcurrency);
+    }
+
+    /**
+     * State of one campaign send. Only the producing thread touches the deferred queues.
+     */
+    private class CampaignRun<T> {
+
+        private final Campaign campaign;
+        private final Function<T, String> domainOf;
+        private final ToIntFunction<T> recipientsOf;
+        private final SendHandler<T> handler;
+        private final BiConsumer<T, Exception> onFailure;
+        private final SendPriority priority;
+        private final Semaphore lanePermits;
+        private final BooleanSupplier stopRequested;
+        private final int concurrency;
+        private final Semaphore campaignPermits;
+        private final AtomicInteger sentCount = new AtomicInteger();
+        private final AtomicInteger failedCount = new AtomicInteger();
+        private final Map<String, Deque<T>> deferred = new HashMap<>();
+        private final Thread producer = Thread.currentThread();
+        private int deferredCount;
+        private boolean stopped;
+
+        CampaignRun(Campaign campaign, Function<T, String> domainOf, ToIntFunction<T> recipientsOf,
+                    SendHandler<T> handler, BiConsumer<T, Exception> onFailure, BooleanSupplier stopRequested) {
+            this.campaign = campaign;
+            this.domainOf = domainOf;
+            this.recipientsOf = recipientsOf;
+            this.handler = handler;
+            this.onFailure = onFailure;
+            this.priority = priorityOf(campaign);
+            this.lanePermits = priority == SendPriority.TRANSACTIONAL ? transactionalPermits : globalPermits;
+            this.stopRequested = stopRequested;
+            this.concurrency = getCampaignConcurrency(campaign);
+            this.campaignPermits = new Semaphore(concurrency);
+        }
+
+        boolean offer(T item) throws InterruptedException {
+            if (isStopped()) {
+                return false;
+            }
+            String domain = domainOf.apply(item);
+
+            // Keep per-domain order: nothing jumps ahead of recipients already held back
+            AdaptiveConcurrencyLimiter.Slot slot = deferred.containsKey(domain) ? null : tryAcquire(domain, item);
+            if (slot != null) {
+                submit(item, slot);
+            } else {
+                deferred.computeIfAbsent(domain, d -> new ArrayDeque<>()).add(item);
+                deferredCount++;
+                rateLimiter.recordDeferral(domain);
+            }
+
+            releaseDeferred();
+            while (!isStopped() && deferredCount >= rateLimiter.getMaxDeferred()) {
+                awaitNextToken();
+                releaseDeferred();
+            }
+            return !stopped;
+        }
+
+        void drainDeferred() throws InterruptedException {
+            releaseDeferred();
+            while (!isStopped() && deferredCount > 0) {
+                awaitNextToken();
+                releaseDeferred();
+            }
+        }
+
+        SendResult awaitCompletion() {
+            // Every in-flight send holds one campaign permit, so reclaiming all of them waits for completion
+            campaignPermits.acquireUninterruptibly(concurrency);
+            if (deferredCount > 0) {
+                log.info("Campaign {} stopped with {} throttled recipients not attempted",
+                        campaign.getName(), deferredCount);
+            }
+            return new SendResult(sentCount.get(), failedCount.get(), stopped);
+        }
+
+        private boolean isStopped() {
+            if (!stopped && stopRequested.getAsBoolean()) {
+                stopped = true;
+                log.info("Stop requested for campaign {}, waiting for in-flight messages", campaign.getName());
+            }
+            return stopped;
+        }
+
+        private void releaseDeferred() throws InterruptedException {
+            Iterator<Map.Entry<String, Deque<T>>> domains = deferred.entrySet().iterator();
+            while (!stopped && domains.hasNext()) {
+                Map.Entry<String, Deque<T>> entry = domains.next();
+                Deque<T> waiting = entry.getValue();
+
+                AdaptiveConcurrencyLimiter.Slot slot;
+                while (!stopped && !waiting.isEmpty() && (slot = tryAcquire(entry.getKey(), waiting.peek())) != null) {
+                    deferredCount--;
+                    submit(waiting.poll(), slot);
+                }
+                if (waiting.isEmpty()) {
+                    domains.remove();
+                }
+            }
+        }
+
+        private AdaptiveConcurrencyLimiter.Slot tryAcquire(String domain, T item) {
+            AdaptiveConcurrencyLimiter.Slot slot = concurrencyLimiter.tryAcquire(domain);
+            if (slot != null && !rateLimiter.tryAcquire(domain, recipientsOf.applyAsInt(item))) {
+                slot.cancel();
+                return null;
+            }
+            return slot;
+        }
+
+        private void awaitNextToken() throws InterruptedException {
+            long waitNanos = deferred.entrySet().stream()
+                    .mapToLong(entry -> rateLimiter.nanosUntilAvailable(entry.getKey(),
+                            recipientsOf.applyAsInt(entry.getValue().peek())))
+                    .min()
+                    .orElse(0);
+            // Out of concurrency rather than tokens; a completing send unparks this thread
+            if (waitNanos == 0) {
+                waitNanos = MAX_PARK_NANOS;
+            }
+            if (waitNanos > 0) {
+                LockSupport.parkNanos(waitNanos);
+            }
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+        }
+
+        private void submit(T item, AdaptiveConcurrencyLimiter.Slot slot) throws InterruptedException {
+            long queuedAt = System.nanoTime();
+            try {
+                campaignPermits.acquire();
+            } catch (InterruptedException e) {
+                slot.cancel();
+                throw e;
+            }
+            try {
+                lanePermits.acquire();
+            } catch (InterruptedException e) {
+                campaignPermits.release();
+                slot.cancel();
+                throw e;
+            }
+
+            try {
+                executor.execute(() -> {
+                    sendMetrics.recordQueueWait(priority, System.nanoTime() - queuedAt);
+                    slot.start();
+                    try {
+                        handler.handle(item, slot::transmitted);
+                        slot.onSuccess();
+                        sentCount.incrementAndGet();
+                    } catch (Exception e) {
+                        slot.onFailure(e);
+                        failedCount.incrementAndGet();
+                        onFailure.accept(item, e);
+                    } finally {
+                        lanePermits.release();
+                        campaignPermits.release();
+                        LockSupport.unpark(producer);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                lanePermits.release();
+                campaignPermits.release();
+                slot.cancel();
+                stopped = true;
+                log.warn("Send engine shutting down, stopping campaign {}", campaign.getName());
+            }
+        }
+    }
+
+    /**
+     * Sends one item. {@code transmitted} takes how long the relay took with it, which the
+     * adaptive concurrency limits judge latency by.
+     */
+    @FunctionalInterface
+    public interface SendHandler<T> {
+        void handle(T item, LongConsumer transmitted) throws Exception;
+    }
+
+    public record SendResult(int sentCount, int failedCount, boolean stopped) {
+    }
+}
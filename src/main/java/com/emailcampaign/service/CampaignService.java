@@ -1,6 +1,7 @@
 package com.emailcampaign.service;
 
 import com.emailcampaign.dto.CampaignDto;
+import com.emailcampaign.dto.CampaignProgressDto;
 import com.emailcampaign.model.Campaign;
 import com.emailcampaign.model.RecipientList;
 import com.emailcampaign.model.User;
@@ -10,13 +11,19 @@ import com.emailcampaign.repository.RecipientListRepository;
 import com.emailcampaign.repository.RecipientRepository;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.task.TaskRejectedException;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import java.time.LocalDateTime;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
 @Service
@@ -30,6 +37,11 @@ public class CampaignService {
     private final RecipientRepository recipientRepository;
     private final EmailService emailService;
     private final SystemLogService systemLogService;
+    private final SendOutboxService sendOutboxService;
+    private final SendShardService sendShardService;
+    private final SendProgressTracker progressTracker;
+    private final CampaignSendEngine sendEngine;
+    private final TrackingTokenCodec tokenCodec;
     
     public Campaign createCampaign(CampaignDto campaignDto, User user) {
         Campaign campaign = new Campaign();
@@ -39,6 +51,9 @@ public class CampaignService {
         campaign.setSenderEmail(campaignDto.getSenderEmail());
         campaign.setReplyToEmail(campaignDto.getReplyToEmail());
         campaign.setContent(campaignDto.getContent());
+        campaign.setSendConcurrency(campaignDto.getSendConcurrency());
+        campaign.setBatchEnvelope(Boolean.TRUE.equals(campaignDto.getBatchEnvelope()));
+        validateBatchEnvelope(campaign);
         campaign.setType(campaignDto.getType() != null ? campaignDto.getType() : Campaign.CampaignType.REGULAR);
         campaign.setStatus(Campaign.CampaignStatus.DRAFT);
         campaign.setUser(user);
@@ -97,6 +112,9 @@ public class CampaignService {
         campaign.setSenderEmail(campaignDto.getSenderEmail());
         campaign.setReplyToEmail(campaignDto.getReplyToEmail());
         campaign.setContent(campaignDto.getContent());
+        campaign.setSendConcurrency(campaignDto.getSendConcurrency());
+        campaign.setBatchEnvelope(Boolean.TRUE.equals(campaignDto.getBatchEnvelope()));
+        validateBatchEnvelope(campaign);
         
         if (campaignDto.getRecipientListId() != null) {
             RecipientList recipientList = recipientListRepository.findById(campaignDto.getRecipientListId())
@@ -125,12 +143,13 @@ public class CampaignService {
             throw new RuntimeException("Campaign cannot be sent in current status");
         }
         
-        campaign.setStatus(Campaign.CampaignStatus.SENDING);
-        campaign.setSentAt(LocalDateTime.now());
-        campaignRepository.save(campaign);
+        if (campaign.getRecipientList() == null) {
+            throw new RuntimeException("Campaign has no recipient list");
+        }
         
-        // Send emails asynchronously
-        emailService.sendCampaignEmails(campaign);
+        if (!startSending(campaign)) {
+            throw new RuntimeException("Campaign is already being sent");
+        }
         
         systemLogService.logUserAction(user, "CAMPAIGN_SENT", 
                 "Campaign sent: " + campaign.getName(), null, null);
@@ -138,6 +157,134 @@ public class CampaignService {
         log.info("Campaign sent: {} by user: {}", campaign.getName(), user.getUsername());
     }
     
+    public void pauseCampaign(Long id, User user) {
+        Campaign campaign = getOwnedCampaign(id, user);
+        
+        if (campaign.getStatus() != Campaign.CampaignStatus.SENDING) {
+            throw new RuntimeException("Only a campaign that is being sent can be paused");
+        }
+        
+        // The send loop notices the status change and stops after its in-flight messages
+        changeStatus(campaign, Campaign.CampaignStatus.SENDING, Campaign.CampaignStatus.PAUSED);
+        
+        systemLogService.logUserAction(user, "CAMPAIGN_PAUSED", 
+                "Campaign paused: " + campaign.getName(), null, null);
+    }
+    
+    public void resumeCampaign(Long id, User user) {
+        Campaign campaign = getOwnedCampaign(id, user);
+        
+        if (campaign.getStatus() != Campaign.CampaignStatus.PAUSED) {
+            throw new RuntimeException("Only a paused campaign can be resumed");
+        }
+        
+        // Only the request that wins the update starts a send loop
+        changeStatus(campaign, Campaign.CampaignStatus.PAUSED, Campaign.CampaignStatus.SENDING);
+        
+        // Continues with the recipients still pending in the outbox
+        afterCommit(() -> startSendLoop(campaign));
+        
+        systemLogService.logUserAction(user, "CAMPAIGN_RESUMED", 
+                "Campaign resumed: " + campaign.getName(), null, null);
+    }
+    
+    public void cancelCampaign(Long id, User user) {
+        Campaign campaign = getOwnedCampaign(id, user);
+        
+        if (campaign.getStatus() != Campaign.CampaignStatus.SENDING && 
+            campaign.getStatus() != Campaign.CampaignStatus.PAUSED &&
+            campaign.getStatus() != Campaign.CampaignStatus.SCHEDULED) {
+            throw new RuntimeException("Campaign cannot be cancelled in current status");
+        }
+        
+        changeStatus(campaign, campaign.getStatus(), Campaign.CampaignStatus.CANCELLED);
+        
+        int cancelled = sendOutboxService.cancelPending(campaign.getId());
+        sendShardService.closeShards(campaign.getId());
+        
+        systemLogService.logUserAction(user, "CAMPAIGN_CANCELLED", 
+                "Campaign cancelled: " + campaign.getName() + " (" + cancelled + " recipients not sent)", null, null);
+    }
+    
+    /**
+     * Counts come from the campaign's counters, which are as current as the send loop's last
+     * checkpoint; throughput is measured by the instance running the send.
+     */
+    @Transactional(readOnly = true)
+    public CampaignProgressDto getCampaignProgress(Long id, User user) {
+        Campaign campaign = getOwnedCampaign(id, user);
+        
+        int total = campaign.getTotalRecipients() != null ? campaign.getTotalRecipients() : 0;
+        int sent = campaign.getSentCount() != null ? campaign.getSentCount() : 0;
+        int failed = campaign.getFailedCount() != null ? campaign.getFailedCount() : 0;
+        boolean finished = campaign.getStatus() == Campaign.CampaignStatus.SENT ||
+                campaign.getStatus() == Campaign.CampaignStatus.CANCELLED;
+        
+        CampaignProgressDto progress = new CampaignProgressDto();
+        progress.setCampaignId(campaign.getId());
+        progress.setStatus(campaign.getStatus());
+        progress.setTotalRecipients(total);
+        progress.setSentCount(sent);
+        progress.setFailedCount(failed);
+        progress.setRemainingCount(finished ? 0 : Math.max(0, total - sent - failed));
+        progress.setThroughputPerSecond(progressTracker.throughput(campaign.getId()));
+        progress.setSentAt(campaign.getSentAt());
+        return progress;
+    }
+    
+    /**
+     * Starts up to {@code limit} SCHEDULED campaigns that are due. The rows are locked with
+     * {@code FOR UPDATE SKIP LOCKED} until the status change commits, so when several instances
+     * dispatch at once each campaign is started by exactly one of them.
+     *
+     * @return the number of due campaigns claimed
+     */
+    public int dispatchDueCampaigns(int limit) {
+        List<Campaign> dueCampaigns = campaignRepository.lockDueScheduled(LocalDateTime.now(), limit);
+        
+        for (Campaign campaign : dueCampaigns) {
+            if (campaign.getRecipientList() == null) {
+                // Back to draft rather than failing on every poll
+                log.warn("Scheduled campaign {} has no recipient list, moving it back to draft", campaign.getName());
+                campaign.setStatus(Campaign.CampaignStatus.DRAFT);
+                continue;
+            }
+            
+            startSending(campaign);
+            
+            systemLogService.logUserAction(campaign.getUser(), "CAMPAIGN_SENT", 
+                    "Scheduled campaign sent: " + campaign.getName(), null, null);
+            
+            log.info("Scheduled campaign sent: {} (scheduled for {})", campaign.getName(), campaign.getScheduledAt());
+        }
+        return dueCampaigns.size();
+    }
+    
+    @EventListener(ApplicationReadyEvent.class)
+    public void resumeInterruptedSends() {
+        for (Campaign campaign : campaignRepository.findByStatus(Campaign.CampaignStatus.SENDING)) {
+            log.info("Resuming interrupted send of campaign: {}", campaign.getName());
+            startSendLoop(campaign);
+        }
+    }
+    
+    /**
+     * Starts this instance's send loop for the campaign, on the executor of its send priority.
+     * When that executor is saturated the campaign stays SENDING, and the dispatcher joins it on
+     * a later poll.
+     */
+    public void startSendLoop(Campaign campaign) {
+        try {
+            if (sendEngine.priorityOf(campaign) == SendPriority.TRANSACTIONAL) {
+                emailService.sendPriorityCampaignEmails(campaign);
+            } else {
+                emailService.sendCampaignEmails(campaign);
+            }
+        } catch (TaskRejectedException e) {
+            log.warn("Send executor is full, campaign {} will start on a later dispatcher poll", campaign.getName());
+        }
+    }
+    
     public void scheduleCampaign(Long id, LocalDateTime scheduledAt, User user) {
         Campaign campaign = campaignRepository.findById(id)
                 .orElseThrow(() -> new RuntimeException("Campaign not found"));
@@ -204,4 +351,65 @@ public class CampaignService {
     public Page<Campaign> getAllCampaigns(Pageable pageable) {
         return campaignRepository.findAll(pageable);
     }
+    
+    private void validateBatchEnvelope(Campaign campaign) {
+        if (campaign.isBatchEnvelope() && CampaignTemplate.compile(campaign, "", tokenCodec, Map.of()).isPersonalized()) {
+            throw new RuntimeException("Batch envelope campaigns cannot use recipient fields or the unsubscribe link");
+        }
+    }
+    
+    /**
+     * Moves the campaign from {@code from} to {@code to} only if it is still in {@code from}, so a
+     * send loop finishing at the same moment is never overwritten. The loaded entity is left as it
+     * is: saving it would also write back counters the send loop has moved on since.
+     */
+    private void changeStatus(Campaign campaign, Campaign.CampaignStatus from, Campaign.CampaignStatus to) {
+        if (campaignRepository.updateStatus(campaign.getId(), from, to) == 0) {
+            throw new RuntimeException("Campaign status changed meanwhile, it is no longer " + from);
+        }
+    }
+    
+    private Campaign getOwnedCampaign(Long id, User user) {
+        Campaign campaign = campaignRepository.findById(id)
+                .orElseThrow(() -> new RuntimeException("Campaign not found"));
+        
+        if (!campaign.getUser().getId().equals(user.getId()) && user.getRole() != User.Role.ADMIN) {
+            throw new RuntimeException("Access denied");
+        }
+        return campaign;
+    }
+    
+    /**
+     * Moves the campaign to SENDING, queues its recipients and starts the send after commit.
+     *
+     * @return false if the campaign left its current status meanwhile, e.g. was started elsewhere
+     */
+    private boolean startSending(Campaign campaign) {
+        LocalDateTime sentAt = LocalDateTime.now();
+        if (campaignRepository.startSending(campaign.getId(), campaign.getStatus(), sentAt) == 0) {
+            return false;
+        }
+        campaign.setStatus(Campaign.CampaignStatus.SENDING);
+        campaign.setSentAt(sentAt);
+        
+        sendOutboxService.enqueue(campaign);
+        sendShardService.createShards(campaign.getId());
+        
+        // Send emails asynchronously once the outbox rows are committed
+        afterCommit(() -> startSendLoop(campaign));
+        return true;
+    }
+    
+    private void afterCommit(Runnable action) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            action.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                action.run();
+            }
+        });
+    }
 }
@@ -0,0 +1,289 @@
+package com.emailcampaign.service;
+
+import com.emailcampaign.model.Campaign;
+import com.emailcampaign.model.Recipient;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Campaign body parsed once into literal text and per-recipient merge fields.
+ * <p>
+ * Merge fields use Thymeleaf inline syntax over the variables the sender has always exposed:
+ * {@code [[${recipient.firstName}]]} (HTML-escaped) or {@code [(${unsubscribeUrl})]} (raw).
+ * Campaign-level values ({@code campaign.name}, {@code campaign.subject}, {@code baseUrl}) are
+ * folded into the literal text at compile time; unknown expressions are left untouched.
+ * <p>
+ * Tracked links are planned at compile time as well: each {@code <a href>} is rewritten to the
+ * click endpoint once, so rendering only splices in the recipient's signed click token, which
+ * refers to the link by the index {@link CampaignLinkService} assigned its URL.
+ * The tracking pixel is appended as part of the template, carrying a signed open token.
+ * <p>
+ * Batch envelope campaigns are compiled without link rewriting or pixel; when they use no merge
+ * fields either, every recipient gets the same body.
+ * <p>
+ * Literal segments are also kept quoted-printable encoded, so {@link #renderQuotedPrintable}
+ * only encodes the recipient's fields.
+ */
+public class CampaignTemplate {
+
+    private static final Pattern INLINE_EXPRESSION =
+            Pattern.compile("\\[\\[\\$\\{\\s*([\\w.]+)\\s*}]]|\\[\\(\\$\\{\\s*([\\w.]+)\\s*}\\)]");
+
+    private static final Pattern LINK = Pattern.compile("<a\\s+href=\"([^\"]+)\"([^>]*)>", Pattern.CASE_INSENSITIVE);
+
+    private final Segment[] segments;
+    private final byte[][] encodedLiterals;
+    private final Long campaignId;
+    private final TrackingTokenCodec tokens;
+    private final String unsubscribeUrlPrefix;
+    private final boolean usesUnsubscribeUrl;
+    private final boolean personalized;
+
+    private CampaignTemplate(List<Segment> segments, Long campaignId, TrackingTokenCodec tokens,
+                             String unsubscribeUrlPrefix) {
+        this.segments = segments.toArray(new Segment[0]);
+        this.encodedLiterals = new byte[this.segments.length][];
+        this.campaignId = campaignId;
+        this.tokens = tokens;
+        this.unsubscribeUrlPrefix = unsubscribeUrlPrefix;
+
+        boolean unsubscribe = false;
+        boolean fields = false;
+        for (int i = 0; i < this.segments.length; i++) {
+            if (this.segments[i] instanceof Literal literal) {
+                encodedLiterals[i] = QuotedPrintable.encode(literal.text());
+            } else if (this.segments[i] instanceof Field field) {
+                unsubscribe |= field.field() == MergeField.UNSUBSCRIBE_URL;
+                fields = true;
+            }
+        }
+        this.usesUnsubscribeUrl = unsubscribe;
+        this.personalized = fields;
+    }
+
+    /**
+     * @param linkIndexes the index of each tracked URL, see {@link CampaignLinkService#assign}
+     */
+    public static CampaignTemplate compile(Campaign campaign, String baseUrl, TrackingTokenCodec tokens,
+                                           Map<String, Integer> linkIndexes) {
+        String content = campaign.getContent() != null ? campaign.getContent() : "";
+        String unsubscribeUrlPrefix = baseUrl + "/api/tracking/unsubscribe?token=";
+        Builder builder = new Builder(campaign, baseUrl);
+        if (campaign.isBatchEnvelope()) {
+            builder.text(content);
+            return new CampaignTemplate(builder.build(), campaign.getId(), tokens, unsubscribeUrlPrefix);
+        }
+
+        // Link rewrite plan: every tracked href becomes the click endpoint followed by the
+        // recipient's token for that link
+        String clickUrlPrefix = "<a href=\"" + baseUrl + "/api/tracking/click/";
+
+        Matcher links = LINK.matcher(content);
+        int last = 0;
+        while (links.find()) {
+            if (!isTrackable(links.group(1))) {
+                continue;
+            }
+            Integer linkIndex = linkIndexes.get(links.group(1));
+            if (linkIndex == null) {
+                throw new IllegalArgumentException("No link index for " + links.group(1));
+            }
+
+            builder.text(content.substring(last, links.start()));
+            builder.literal(clickUrlPrefix);
+            builder.field(MergeField.CLICK_TOKEN, false, linkIndex);
+            builder.literal("\"");
+            builder.text(links.group(2) + ">");
+            last = links.end();
+        }
+        builder.text(content.substring(last));
+
+        // Add tracking pixel
+        builder.literal("<img src=\"" + baseUrl + "/api/tracking/pixel/");
+        builder.field(MergeField.OPEN_TOKEN, false);
+        builder.literal("\" width=\"1\" height=\"1\" style=\"display:none;\" />");
+
+        return new CampaignTemplate(builder.build(), campaign.getId(), tokens, unsubscribeUrlPrefix);
+    }
+
+    /**
+     * The URLs of the content's tracked links, in order and including repeats.
+     */
+    public static List<String> trackedLinks(String content) {
+        List<String> urls = new ArrayList<>();
+        if (content != null) {
+            Matcher links = LINK.matcher(content);
+            while (links.find()) {
+                if (isTrackable(links.group(1))) {
+                    urls.add(links.group(1));
+                }
+            }
+        }
+        return urls;
+    }
+
+    private static boolean isTrackable(String url) {
+        // Tracking endpoints stay as they are; hrefs built from merge fields differ per recipient
+        return !url.contains("/api/tracking/") && !INLINE_EXPRESSION.matcher(url).find();
+    }
+
+    public boolean usesUnsubscribeUrl() {
+        return usesUnsubscribeUrl;
+    }
+
+    /**
+     * Whether the body differs per recipient: merge fields, tracked links or the tracking pixel.
+     */
+    public boolean isPersonalized() {
+        return personalized;
+    }
+
+    /**
+     * Renders the body quoted-printable encoded, as parts to be written out one after the other.
+     * Literal parts are the template's own encoded segments and must not be modified.
+     */
+    public byte[][] renderQuotedPrintable(Recipient recipient, String trackingId, String unsubscribeToken) {
+        byte[][] parts = new byte[segments.length][];
+
+        for (int i = 0; i < segments.length; i++) {
+            if (segments[i] instanceof Field field) {
+                parts[i] = QuotedPrintable.encode(value(field, recipient, trackingId, unsubscribeToken));
+            } else {
+                parts[i] = encodedLiterals[i];
+            }
+        }
+        return parts;
+    }
+
+    private String value(Field field, Recipient recipient, String trackingId, String unsubscribeToken) {
+        String value = switch (field.field()) {
+            case FIRST_NAME -> recipient.getFirstName();
+            case LAST_NAME -> recipient.getLastName();
+            case EMAIL -> recipient.getEmail();
+            case TRACKING_ID -> trackingId;
+            case OPEN_TOKEN -> tokens.encodeOpen(campaignId, recipient.getId());
+            case UNSUBSCRIBE_URL -> unsubscribeUrlPrefix + unsubscribeToken;
+            case CLICK_TOKEN -> tokens.encodeClick(campaignId, recipient.getId(), field.linkIndex());
+        };
+        return value == null ? "" : field.escape() ? escape(value) : value;
+    }
+
+    private static String escape(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '&' || c == '<' || c == '>' || c == '"' || c == '\'') {
+                StringBuilder out = new StringBuilder(value.length() + 16);
+                appendValue(out, value, true);
+                return out.toString();
+            }
+        }
+        return value;
+    }
+
+    private static void appendValue(StringBuilder out, String value, boolean escape) {
+        if (value == null) {
+            return;
+        }
+        if (!escape) {
+            out.append(value);
+            return;
+        }
+
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '&' -> out.append("&amp;");
+                case '<' -> out.append("&lt;");
+                case '>' -> out.append("&gt;");
+                case '"' -> out.append("&quot;");
+                case '\'' -> out.append("&#39;");
+                default -> out.append(c);
+            }
+        }
+    }
+
+    enum MergeField {
+        FIRST_NAME, LAST_NAME, EMAIL, TRACKING_ID, UNSUBSCRIBE_URL, CLICK_TOKEN, OPEN_TOKEN
+    }
+
+    sealed interface Segment permits Literal, Field {
+    }
+
+    record Literal(String text) implements Segment {
+    }
+
+    // linkIndex is only used by CLICK_TOKEN fields
+    record Field(MergeField field, boolean escape, int linkIndex) implements Segment {
+    }
+
+    private static class Builder {
+
+        private final Campaign campaign;
+        private final String baseUrl;
+        private final List<Segment> segments = new ArrayList<>();
+        private final StringBuilder pendingLiteral = new StringBuilder();
+
+        Builder(Campaign campaign, String baseUrl) {
+            this.campaign = campaign;
+            this.baseUrl = baseUrl;
+        }
+
+        // Content text, with inline expressions resolved into merge fields or constants
+        void text(String text) {
+            Matcher matcher = INLINE_EXPRESSION.matcher(text);
+            int last = 0;
+            while (matcher.find()) {
+                literal(text.substring(last, matcher.start()));
+
+                boolean escape = matcher.group(1) != null;
+                String expression = escape ? matcher.group(1) : matcher.group(2);
+                switch (expression) {
+                    case "recipient.firstName" -> field(MergeField.FIRST_NAME, escape);
+                    case "recipient.lastName" -> field(MergeField.LAST_NAME, escape);
+                    case "recipient.email" -> field(MergeField.EMAIL, escape);
+                    case "trackingId" -> field(MergeField.TRACKING_ID, escape);
+                    case "unsubscribeUrl" -> field(MergeField.UNSUBSCRIBE_URL, escape);
+                    case "campaign.name" -> constant(campaign.getName(), escape);
+                    case "campaign.subject" -> constant(campaign.getSubject(), escape);
+                    case "baseUrl" -> constant(baseUrl, escape);
+                    default -> literal(matcher.group());
+                }
+                last = matcher.end();
+            }
+            literal(text.substring(last));
+        }
+
+        void literal(String text) {
+            pendingLiteral.append(text);
+        }
+
+        void constant(String value, boolean escape) {
+            appendValue(pendingLiteral, value, escape);
+        }
+
+        void field(MergeField field, boolean escape) {
+            field(field, escape, 0);
+        }
+
+        void field(MergeField field, boolean escape, int linkIndex) {
+            flushLiteral();
+            segments.add(new Field(field, escape, linkIndex));
+        }
+
+        List<Segment> build() {
+            flushLiteral();
+            return segments;
+        }
+
+        private void flushLiteral() {
+            if (!pendingLiteral.isEmpty()) {
+                segments.add(new Literal(pendingLiteral.toString()));
+                pendingLiteral.setLength(0);
+            }
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package com.emailcampaign.service;
+
+import com.emailcampaign.model.Campaign;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Compiled templates of campaigns that are currently sending, recompiled if the content or the
+ * envelope mode changes.
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class CampaignTemplateCache {
+
+    private final TrackingTokenCodec tokenCodec;
+    private final CampaignLinkService campaignLinkService;
+
+    @Value("${app.base-url:http://localhost:8080}")
+    private String baseUrl;
+
+    private final Map<Long, CachedTemplate> templates = new ConcurrentHashMap<>();
+
+    public CampaignTemplate get(Campaign campaign) {
+        CachedTemplate cached = templates.get(campaign.getId());
+        if (cached != null && cached.matches(campaign.getContent(), campaign.isBatchEnvelope())) {
+            return cached.template();
+        }
+
+        // Batch envelope templates have no tracked links
+        Map<String, Integer> linkIndexes = campaign.isBatchEnvelope() ? Map.of() : campaignLinkService.assign(campaign);
+        CampaignTemplate template = CampaignTemplate.compile(campaign, baseUrl, tokenCodec, linkIndexes);
+        templates.put(campaign.getId(), new CachedTemplate(campaign.getContent(), campaign.isBatchEnvelope(), template));
+        log.debug("Compiled template for campaign: {}", campaign.getName());
+        return template;
+    }
+
+    public void evict(Long campaignId) {
+        templates.remove(campaignId);
+    }
+
+    private record CachedTemplate(String content, boolean batchEnvelope, CampaignTemplate template) {
+
+        boolean matches(String otherContent, boolean otherBatchEnvelope) {
+            // The same Campaign instance is reused for a whole send, so identity almost always hits
+            return batchEnvelope == otherBatchEnvelope
+                    && (content == otherContent || (content != null && content.equals(otherContent)));
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package com.emailcampaign.service;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.function.Function;
+import java.util.function.ToIntFunction;
+
+/**
+ * Groups items into batches of one domain each, in the order the batches fill up. A batch is
+ * emitted once it reaches its domain's size; when {@code maxBuffered} items are waiting across
+ * all domains the largest partial batch goes out early, and the rest when the source runs out.
+ */
+class DomainBatchIterable<T> implements Iterable<List<T>> {
+
+    private final Iterable<T> items;
+    private final Function<T, String> domainOf;
+    private final ToIntFunction<String> batchSizeOf;
+    private final int maxBuffered;
+
+    DomainBatchIterable(Iterable<T> items, Function<T, String> domainOf, ToIntFunction<String> batchSizeOf,
+                        int maxBuffered) {
+        this.items = items;
+        this.domainOf = domainOf;
+        this.batchSizeOf = batchSizeOf;
+        this.maxBuffered = maxBuffered;
+    }
+
+    @Override
+    public Iterator<List<T>> iterator() {
+        return new BatchIterator(items.iterator());
+    }
+
+    private class BatchIterator implements Iterator<List<T>> {
+
+        private final Iterator<T> source;
+        private final Map<String, List<T>> pending = new LinkedHashMap<>();
+        private int buffered;
+        private List<T> next;
+
+        BatchIterator(Iterator<T> source) {
+            this.source = source;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (next == null) {
+                if (source.hasNext()) {
+                    add(source.next());
+                } else if (!pending.isEmpty()) {
+                    next = take(pending.keySet().iterator().next());
+                } else {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public List<T> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            List<T> batch = next;
+            next = null;
+            return batch;
+        }
+
+        private void add(T item) {
+            String domain = domainOf.apply(item);
+            List<T> batch = pending.computeIfAbsent(domain, d -> new ArrayList<>());
+            batch.add(item);
+            buffered++;
+
+            if (batch.size() >= Math.max(1, batchSizeOf.applyAsInt(domain))) {
+                next = take(domain);
+            } else if (buffered >= maxBuffered) {
+                next = take(largestDomain());
+            }
+        }
+
+        private String largestDomain() {
+            String largest = null;
+            int size = 0;
+            for (Map.Entry<String, List<T>> entry : pending.entrySet()) {
+                if (entry.getValue().size() > size) {
+                    largest = entry.getKey();
+                    size = entry.getValue().size();
+                }
+            }
+            return largest;
+        }
+
+        private List<T> take(String domain) {
+            List<T> batch = pending.remove(domain);
+            buffered -= batch.size();
+            return batch;
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package com.emailcampaign.service;
+
+import com.emailcampaign.config.ThrottleProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Token-bucket rate limiter keyed by recipient domain. Domains configured under
+ * {@code app.throttle.domains} get their own rate (shared with their aliases); every other
+ * domain gets a bucket at the default rate.
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class DomainRateLimiter {
+
+    private static final String OTHER_DOMAINS = "other";
+
+    private final ThrottleProperties properties;
+    private final MeterRegistry meterRegistry;
+
+    private final Map<String, TokenBucket> buckets = new ConcurrentHashMap<>();
+    private final Map<String, String> canonicalDomains = new HashMap<>();
+    private final Map<String, Counter> deferralCounters = new HashMap<>();
+
+    @PostConstruct
+    public void init() {
+        properties.getDomains().forEach((domain, rate) -> {
+            String key = domain.toLowerCase(Locale.ROOT);
+            int burst = rate.getBurst() != null ? rate.getBurst() : (int) Math.ceil(rate.getRate());
+            TokenBucket bucket = new TokenBucket(rate.getRate(), burst);
+            buckets.put(key, bucket);
+
+            canonicalDomains.put(key, key);
+            rate.getAliases().forEach(alias -> canonicalDomains.put(alias.toLowerCase(Locale.ROOT), key));
+
+            Gauge.builder("send.throttle.tokens", bucket, TokenBucket::availableTokens)
+                    .description("Tokens currently available in the domain's bucket")
+                    .tag("domain", key)
+                    .register(meterRegistry);
+            deferralCounters.put(key, deferralCounter(key));
+        });
+        deferralCounters.put(OTHER_DOMAINS, deferralCounter(OTHER_DOMAINS));
+
+        log.info("Domain throttling configured for {} domains, default rate {}/s",
+                buckets.size(), properties.getDefaultRate());
+    }
+
+    public String domainOf(String email) {
+        int at = email.lastIndexOf('@');
+        String domain = email.substring(at + 1).toLowerCase(Locale.ROOT);
+        return canonicalDomains.getOrDefault(domain, domain);
+    }
+
+    public boolean tryAcquire(String domain) {
+        return tryAcquire(domain, 1);
+    }
+
+    /**
+     * Takes one token per recipient of a multi-recipient send, at most the bucket's burst.
+     */
+    public boolean tryAcquire(String domain, int tokens) {
+        return bucketFor(domain).tryAcquire(tokens);
+    }
+
+    public long nanosUntilAvailable(String domain) {
+        return nanosUntilAvailable(domain, 1);
+    }
+
+    public long nanosUntilAvailable(String domain, int tokens) {
+        return bucketFor(domain).nanosUntilAvailable(tokens);
+    }
+
+    /**
+     * Most tokens the domain's bucket can hold, so the most recipients one send to it can take.
+     */
+    public int getBurst(String domain) {
+        return bucketFor(domain).getCapacity();
+    }
+
+    public void recordDeferral(String domain) {
+        deferralCounters.getOrDefault(domain, deferralCounters.get(OTHER_DOMAINS)).increment();
+    }
+
+    /**
+     * Domain tag value for metrics: configured domains by name, everything else as "other",
+     * so per-domain meters stay bounded.
+     */
+    public String metricTag(String domain) {
+        return domain.equals(canonicalDomains.get(domain)) ? domain : OTHER_DOMAINS;
+    }
+
+    public int getMaxDeferred() {
+        return properties.getMaxDeferred();
+    }
+
+    // Buckets of unconfigured domains that have refilled completely carry no state worth keeping
+    @Scheduled(fixedDelay = 60000)
+    public void evictIdleBuckets() {
+        buckets.entrySet().removeIf(entry ->
+                !canonicalDomains.containsKey(entry.getKey()) && entry.getValue().isFull());
+    }
+
+    private TokenBucket bucketFor(String domain) {
+        return buckets.computeIfAbsent(domain,
+                d -> new TokenBucket(properties.getDefaultRate(), properties.getDefaultBurst()));
+    }
+
+    private Counter deferralCounter(String domain) {
+        return Counter.builder("send.throttle.deferred")
+                .description("Recipients held back because their domain was out of tokens")
+                .tag("domain", domain)
+                .register(meterRegistry);
+    }
+
+    static class TokenBucket {
+
+        private final double tokensPerNano;
+        private final double capacity;
+        private double tokens;
+        private long lastRefill = System.nanoTime();
+
+        TokenBucket(double ratePerSecond, int burst) {
+            this.tokensPerNano = ratePerSecond / 1_000_000_000d;
+            this.capacity = Math.max(1, burst);
+            this.tokens = capacity;
+        }
+
+        synchronized boolean tryAcquire(int count) {
+            refill();
+            double needed = Math.min(count, capacity);
+            if (tokens >= needed) {
+                tokens -= needed;
+                return true;
+            }
+            return false;
+        }
+
+        synchronized long nanosUntilAvailable(int count) {
+            refill();
+            double needed = Math.min(count, capacity);
+            return tokens >= needed ? 0 : (long) Math.ceil((needed - tokens) / tokensPerNano);
+        }
+
+        int getCapacity() {
+            return (int) capacity;
+        }
+
+        synchronized double availableTokens() {
+            refill();
+            return tokens;
+        }
+
+        synchronized boolean isFull() {
+            refill();
+            return tokens >= capacity;
+        }
+
+        private void refill() {
+            long now = System.nanoTime();
+            tokens = Math.min(capacity, tokens + (now - lastRefill) * tokensPerNano);
+            lastRefill = now;
+        }
+    }
+}
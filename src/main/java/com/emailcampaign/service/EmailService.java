@@ -3,26 +3,34 @@ package com.emailcampaign.service;
 import com.emailcampaign.model.Campaign;
 import com.emailcampaign.model.EmailTracking;
 import com.emailcampaign.model.Recipient;
+import com.emailcampaign.model.SendOutboxEntry;
 import com.emailcampaign.repository.CampaignRepository;
-import com.emailcampaign.repository.EmailTrackingRepository;
-import com.emailcampaign.repository.RecipientRepository;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.eclipse.angus.mail.smtp.SMTPAddressFailedException;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.data.domain.Pageable;
 import org.springframework.mail.javamail.JavaMailSender;
 import org.springframework.mail.javamail.MimeMessageHelper;
 import org.springframework.scheduling.annotation.Async;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
-import org.thymeleaf.TemplateEngine;
-import org.thymeleaf.context.Context;
 
+import jakarta.mail.Address;
 import jakarta.mail.MessagingException;
+import jakarta.mail.SendFailedException;
+import jakarta.mail.internet.AddressException;
+import jakarta.mail.internet.InternetAddress;
 import jakarta.mail.internet.MimeMessage;
 import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
 import java.util.UUID;
+import java.util.function.BooleanSupplier;
+import java.util.function.LongConsumer;
+import java.util.stream.StreamSupport;
 
 @Service
 @RequiredArgsConstructor
@@ -30,107 +38,373 @@ import java.util.UUID;
 public class EmailService {
     
     private final JavaMailSender mailSender;
-    private final TemplateEngine templateEngine;
-    private final EmailTrackingRepository emailTrackingRepository;
-    private final RecipientRepository recipientRepository;
+    private final CampaignTemplateCache templateCache;
+    private final EmailTrackingWriter emailTrackingWriter;
+    private final SendOutboxService sendOutboxService;
     private final CampaignRepository campaignRepository;
     private final TrackingService trackingService;
+    private final CampaignSendEngine sendEngine;
+    private final SmtpTransportPool transportPool;
+    private final DomainRateLimiter rateLimiter;
+    private final SendProgressTracker progressTracker;
+    private final SendMetrics sendMetrics;
+    private final SendShardService shardService;
+    private final SuppressionService suppressionService;
     
-    @Value("${app.base-url:http://localhost:8080}")
-    private String baseUrl;
+    @Value("${app.send.status-check-interval-ms:1000}")
+    private long statusCheckIntervalMs;
     
-    @Async
-    @Transactional
+    @Value("${app.send.envelope.max-recipients:50}")
+    private int envelopeMaxRecipients;
+    
+    @Value("${app.send.envelope.max-buffered:5000}")
+    private int envelopeMaxBuffered;
+    
+    /**
+     * Sends whatever is still pending in the campaign's outbox. The loop checks the campaign
+     * status cooperatively and winds down once it is no longer SENDING, leaving the rest of the
+     * outbox pending so a pause can be resumed.
+     */
+    @Async("sendExecutor")
     public void sendCampaignEmails(Campaign campaign) {
-        log.info("Starting to send campaign: {}", campaign.getName());
+        runSendLoop(campaign);
+    }
+    
+    /**
+     * {@link #sendCampaignEmails} for transactional campaigns, on their own executor.
+     */
+    @Async("prioritySendExecutor")
+    public void sendPriorityCampaignEmails(Campaign campaign) {
+        runSendLoop(campaign);
+    }
+    
+    private void runSendLoop(Campaign campaign) {
+        Long campaignId = campaign.getId();
+        boolean resumed = true;
         
-        if (campaign.getRecipientList() == null) {
-            log.error("No recipient list found for campaign: {}", campaign.getName());
-            return;
+        while (resumed && progressTracker.start(campaignId)) {
+            boolean stoppedByStatus;
+            try {
+                stoppedByStatus = sendPendingEmails(campaign);
+            } finally {
+                progressTracker.finish(campaignId);
+            }
+            
+            // A resume that arrived while this run was winding down found it still registered
+            resumed = stoppedByStatus && campaignRepository.findStatusById(campaignId)
+                    .filter(status -> status == Campaign.CampaignStatus.SENDING)
+                    .isPresent();
         }
+    }
+    
+    private boolean sendPendingEmails(Campaign campaign) {
+        log.info("Starting to send campaign: {}", campaign.getName());
         
-        List<Recipient> recipients = recipientRepository
-                .findByRecipientListAndStatus(campaign.getRecipientList(), 
-                        Recipient.RecipientStatus.ACTIVE, Pageable.unpaged())
-                .getContent();
-        
+        SendOutboxService.Checkpoint checkpoint = sendOutboxService.checkpoint(campaign.getId());
+        StatusCheck statusCheck = new StatusCheck(campaign.getId());
+        SendMetrics.CampaignMeters meters = sendMetrics.forCampaign(campaign.getId());
+        SendPriority priority = sendEngine.priorityOf(campaign);
+        CampaignMessageFactory messages = new CampaignMessageFactory(
+                transportPool.getSession(), campaign, templateCache.get(campaign));
+        boolean batched = useBatchEnvelope(campaign, messages);
         int sentCount = 0;
         int failedCount = 0;
         
-        for (Recipient recipient : recipients) {
-            try {
-                String trackingId = sendEmailToRecipient(campaign, recipient);
-                sentCount++;
+        try {
+            while (true) {
+                Optional<SendShardService.Lease> leased = shardService.lease(campaign.getId());
+                if (leased.isEmpty()) {
+                    if (!shardService.hasOpenShards(campaign.getId())) {
+                        // Recipients queued after the shards were created get shards of their own
+                        if (shardService.createShards(campaign.getId()) > 0) {
+                            continue;
+                        }
+                        break;
+                    }
+                    // The remaining shards are leased by other instances or waiting for retries
+                    if (!awaitLeasableShard(campaign, statusCheck)) {
+                        log.info("Campaign {} stopped while waiting for a shard ({})", campaign.getName(), statusCheck.status);
+                        return statusCheck.stopRequested;
+                    }
+                    continue;
+                }
                 
-                // Log sent event with the same trackingId as the pixel
-                logEmailEvent(campaign, recipient, EmailTracking.EventType.SENT, trackingId, null, null);
+                SendShardService.Lease lease = leased.get();
+                CampaignSendEngine.SendResult result;
+                try {
+                    // Drain whatever is due in the shard, so a resumed send skips recipients already done
+                    Iterable<SendOutboxEntry> entries = withoutSuppressed(
+                            sendOutboxService.pendingEntries(campaign.getId(), lease, checkpoint::flush), checkpoint);
+                    BooleanSupplier stopRequested = () -> statusCheck.getAsBoolean() || !lease.renewIfDue();
+                    result = batched
+                            ? sendInBatches(campaign, entries, messages, priority, checkpoint, meters, stopRequested)
+                            : sendEngine.send(campaign, entries,
+                                    entry -> rateLimiter.domainOf(entry.getRecipient().getEmail()),
+                                    (entry, transmitted) -> sendEntry(campaign, entry, messages, priority,
+                                            checkpoint, meters, transmitted),
+                                    (entry, e) -> handleFailure(campaign, entry, e, checkpoint, meters),
+                                    stopRequested);
+                    checkpoint.flush();
+                } finally {
+                    lease.release();
+                }
                 
-            } catch (Exception e) {
-                log.error("Failed to send email to {}: {}", recipient.getEmail(), e.getMessage());
-                failedCount++;
+                sentCount += result.sentCount();
+                failedCount += result.failedCount();
                 
-                // Log bounce event (no trackingId for bounce)
-                logEmailEvent(campaign, recipient, EmailTracking.EventType.BOUNCED, null, null, null);
+                if (statusCheck.stopRequested) {
+                    log.info("Campaign {} stopped ({}). Sent: {}, Failed attempts: {}", 
+                            campaign.getName(), statusCheck.status, sentCount, failedCount);
+                    return true;
+                }
+                if (lease.isLost()) {
+                    log.warn("Lease on shard {} of campaign {} expired and was taken over", 
+                            lease.getShardIndex(), campaign.getName());
+                } else if (result.stopped()) {
+                    log.warn("Campaign {} stopped with {} recipients pending, other instances or the next startup will resume it", 
+                            campaign.getName(), sendOutboxService.countPending(campaign.getId()));
+                    return false;
+                }
             }
+        } finally {
+            templateCache.evict(campaign.getId());
+            sendMetrics.release(campaign.getId());
+        }
+        
+        long uncovered = shardService.countPendingOutsideShards(campaign.getId());
+        if (uncovered > 0) {
+            log.error("Campaign {} has {} pending recipients outside every shard, leaving it SENDING", 
+                    campaign.getName(), uncovered);
+            return false;
         }
         
-        // Update campaign status
-        campaign.setStatus(Campaign.CampaignStatus.SENT);
-        campaignRepository.save(campaign);
+        // Update campaign status, unless it was paused or cancelled after the last check
+        // Whichever instance finishes the last shard marks the campaign SENT
+        campaignRepository.updateStatus(campaign.getId(), Campaign.CampaignStatus.SENDING, Campaign.CampaignStatus.SENT);
         
-        log.info("Campaign {} completed. Sent: {}, Failed: {}", 
+        log.info("Campaign {} completed on this instance. Sent: {}, Failed attempts: {}", 
                 campaign.getName(), sentCount, failedCount);
+        return false;
     }
     
-    private String sendEmailToRecipient(Campaign campaign, Recipient recipient) throws MessagingException, java.io.UnsupportedEncodingException {
-        MimeMessage message = mailSender.createMimeMessage();
-        MimeMessageHelper helper = new MimeMessageHelper(message, true, "UTF-8");
-        
-        // Generate tracking ID
-        String trackingId = UUID.randomUUID().toString();
+    // Addresses suppressed since the campaign was queued are skipped before they take a send slot
+    private Iterable<SendOutboxEntry> withoutSuppressed(Iterable<SendOutboxEntry> entries,
+                                                        SendOutboxService.Checkpoint checkpoint) {
+        return () -> StreamSupport.stream(entries.spliterator(), false)
+                .filter(entry -> {
+                    if (suppressionService.isSuppressed(entry.getRecipient().getEmail())) {
+                        checkpoint.markSuppressed(entry.getId());
+                        return false;
+                    }
+                    return true;
+                })
+                .iterator();
+    }
+    
+    private void sendEntry(Campaign campaign, SendOutboxEntry entry, CampaignMessageFactory messages,
+                           SendPriority priority, SendOutboxService.Checkpoint checkpoint,
+                           SendMetrics.CampaignMeters meters, LongConsumer transmitted) throws Exception {
+        long start = System.nanoTime();
+        Recipient recipient = entry.getRecipient();
+        String domain = rateLimiter.domainOf(recipient.getEmail());
+        String trackingId = sendEmailToRecipient(campaign, recipient, domain, messages, priority, meters,
+                transmitted);
+        recordSent(campaign, entry, domain, trackingId, checkpoint, meters);
+        meters.recordSend(System.nanoTime() - start);
+    }
+    
+    private void recordSent(Campaign campaign, SendOutboxEntry entry, String domain, String trackingId,
+                            SendOutboxService.Checkpoint checkpoint, SendMetrics.CampaignMeters meters) {
+        meters.recordSent(domain);
         
-        // Prepare email content with tracking pixel
-        String emailContent = prepareEmailContent(campaign, recipient, trackingId);
+        // Log sent event; the pixel identifies campaign and recipient by itself
+        long trackingStart = System.nanoTime();
+        logEmailEvent(campaign, entry.getRecipient(), EmailTracking.EventType.SENT, trackingId, null, null);
+        meters.recordTrackingWrite(System.nanoTime() - trackingStart);
         
-        helper.setTo(recipient.getEmail());
-        helper.setSubject(campaign.getSubject());
-        helper.setFrom(campaign.getSenderEmail(), campaign.getSenderName());
+        checkpoint.markSent(entry.getId());
+        progressTracker.recordCompleted(campaign.getId());
+    }
+    
+    /**
+     * Whether the campaign is sent as one shared message per batch of recipients, rather than one
+     * message per recipient.
+     */
+    private boolean useBatchEnvelope(Campaign campaign, CampaignMessageFactory messages) {
+        if (!campaign.isBatchEnvelope()) {
+            return false;
+        }
+        if (messages.isPersonalized()) {
+            log.warn("Campaign {} uses recipient fields, sending it one message per recipient", campaign.getName());
+            return false;
+        }
+        return true;
+    }
+    
+    /**
+     * Sends the shared message in SMTP transactions of up to {@code app.send.envelope.max-recipients}
+     * recipients of one domain, never more than the domain's rate-limit burst.
+     */
+    private CampaignSendEngine.SendResult sendInBatches(Campaign campaign, Iterable<SendOutboxEntry> entries,
+                                                        CampaignMessageFactory messages, SendPriority priority,
+                                                        SendOutboxService.Checkpoint checkpoint,
+                                                        SendMetrics.CampaignMeters meters,
+                                                        BooleanSupplier stopRequested) {
+        Iterable<List<SendOutboxEntry>> batches = new DomainBatchIterable<>(entries,
+                entry -> rateLimiter.domainOf(entry.getRecipient().getEmail()),
+                domain -> Math.min(envelopeMaxRecipients, rateLimiter.getBurst(domain)),
+                envelopeMaxBuffered);
+        return sendEngine.send(campaign, batches,
+                batch -> rateLimiter.domainOf(batch.get(0).getRecipient().getEmail()),
+                List::size,
+                (batch, transmitted) -> sendBatch(campaign, batch, messages, priority, checkpoint, meters,
+                        transmitted),
+                (batch, e) -> batch.forEach(entry -> handleFailure(campaign, entry, e, checkpoint, meters)),
+                stopRequested);
+    }
+    
+    private void sendBatch(Campaign campaign, List<SendOutboxEntry> batch, CampaignMessageFactory messages,
+                           SendPriority priority, SendOutboxService.Checkpoint checkpoint,
+                           SendMetrics.CampaignMeters meters, LongConsumer transmitted) throws Exception {
+        long start = System.nanoTime();
+        String domain = rateLimiter.domainOf(batch.get(0).getRecipient().getEmail());
         
-        if (campaign.getReplyToEmail() != null && !campaign.getReplyToEmail().isEmpty()) {
-            helper.setReplyTo(campaign.getReplyToEmail());
+        Map<Address, SendOutboxEntry> recipients = new LinkedHashMap<>();
+        for (SendOutboxEntry entry : batch) {
+            try {
+                recipients.put(new InternetAddress(entry.getRecipient().getEmail(), true), entry);
+            } catch (AddressException e) {
+                handleFailure(campaign, entry, e, checkpoint, meters);
+            }
+        }
+        if (recipients.isEmpty()) {
+            return;
         }
         
-        helper.setText(emailContent, true);
+        MimeMessage message = messages.createShared();
         
-        mailSender.send(message);
+        long sendStart = System.nanoTime();
+        try {
+            transportPool.send(message, recipients.keySet().toArray(new Address[0]), priority, transmitted);
+        } catch (SendFailedException e) {
+            if (e.getInvalidAddresses() == null || e.getInvalidAddresses().length == 0) {
+                // The whole transaction failed, the engine fails every recipient with it
+                throw e;
+            }
+            handlePartialFailure(campaign, recipients, e, domain, checkpoint, meters);
+            return;
+        } finally {
+            meters.recordSmtpSend(domain, System.nanoTime() - sendStart);
+        }
         
-        log.debug("Email sent to {} for campaign {}", recipient.getEmail(), campaign.getName());
+        for (SendOutboxEntry entry : recipients.values()) {
+            recordSent(campaign, entry, domain, null, checkpoint, meters);
+        }
+        meters.recordSend(System.nanoTime() - start);
+        log.debug("Batch of {} {} recipients sent for campaign {}", recipients.size(), domain, campaign.getName());
+    }
+    
+    // The relay rejected some recipients; the rest got the message unless the transaction failed later on
+    private void handlePartialFailure(Campaign campaign, Map<Address, SendOutboxEntry> recipients,
+                                      SendFailedException failure, String domain,
+                                      SendOutboxService.Checkpoint checkpoint, SendMetrics.CampaignMeters meters) {
+        Set<Address> sent = failure.getValidSentAddresses() != null
+                ? Set.of(failure.getValidSentAddresses())
+                : Set.of();
+        Map<Address, Exception> rejections = new HashMap<>();
+        for (Exception next = failure.getNextException(); next != null;
+             next = next instanceof MessagingException m ? m.getNextException() : null) {
+            if (next instanceof SMTPAddressFailedException rejection) {
+                rejections.put(rejection.getAddress(), rejection);
+            }
+        }
         
-        return trackingId;
+        recipients.forEach((address, entry) -> {
+            if (sent.contains(address)) {
+                recordSent(campaign, entry, domain, null, checkpoint, meters);
+            } else {
+                handleFailure(campaign, entry, rejections.getOrDefault(address, failure), checkpoint, meters);
+            }
+        });
+    }
+    
+    private void handleFailure(Campaign campaign, SendOutboxEntry entry, Exception e,
+                               SendOutboxService.Checkpoint checkpoint, SendMetrics.CampaignMeters meters) {
+        Recipient recipient = entry.getRecipient();
+        SmtpFailureClassifier.FailureType failureType = SmtpFailureClassifier.classify(e);
+        meters.recordFailure(rateLimiter.domainOf(recipient.getEmail()), e, failureType);
+        
+        if (failureType == SmtpFailureClassifier.FailureType.PERMANENT) {
+            log.error("Failed to send email to {}: {}", recipient.getEmail(), e.getMessage());
+            
+            // Log bounce event (no trackingId for bounce)
+            logEmailEvent(campaign, recipient, EmailTracking.EventType.BOUNCED, null, null, null);
+            checkpoint.markBounced(entry);
+        } else if (failureType == SmtpFailureClassifier.FailureType.MESSAGE_REJECTED) {
+            // The relay refused the message, not the address: fail the entry, leave the recipient alone
+            log.error("Message to {} rejected: {}", recipient.getEmail(), e.getMessage());
+            checkpoint.markFailed(entry.getId());
+        } else if (checkpoint.markRetry(entry)) {
+            log.warn("Transient failure sending to {} (attempt {}), will retry: {}", 
+                    recipient.getEmail(), entry.getAttempts() + 1, e.getMessage());
+        } else {
+            log.error("Giving up on {} after {} attempts: {}", 
+                    recipient.getEmail(), entry.getAttempts() + 1, e.getMessage());
+        }
+        progressTracker.recordCompleted(campaign.getId());
     }
     
-    private String prepareEmailContent(Campaign campaign, Recipient recipient, String trackingId) {
-        Context context = new Context();
-        context.setVariable("campaign", campaign);
-        context.setVariable("recipient", recipient);
-        context.setVariable("trackingId", trackingId);
-        context.setVariable("baseUrl", baseUrl);
-        context.setVariable("unsubscribeUrl", 
-                baseUrl + "/api/tracking/unsubscribe?token=" + 
-                trackingService.generateUnsubscribeToken(recipient, campaign));
+    /**
+     * Waits until a shard's lease expires or its next retry is due, checking the campaign status meanwhile.
+     *
+     * @return false if the campaign was paused or cancelled, or the thread interrupted
+     */
+    private boolean awaitLeasableShard(Campaign campaign, StatusCheck statusCheck) {
+        // At least one status check interval, as a shard being claimed right now reports as leasable
+        long waitMs = Math.max(shardService.millisUntilLeasable(campaign.getId()), statusCheckIntervalMs);
+        log.info("Campaign {} waiting {} ms for a shard to become leasable", campaign.getName(), waitMs);
         
-        String content = campaign.getContent();
+        long deadline = System.currentTimeMillis() + waitMs;
+        try {
+            long remaining;
+            while ((remaining = deadline - System.currentTimeMillis()) > 0) {
+                if (statusCheck.getAsBoolean()) {
+                    return false;
+                }
+                Thread.sleep(Math.min(remaining, statusCheckIntervalMs));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        return !statusCheck.getAsBoolean();
+    }
+    
+    private String sendEmailToRecipient(Campaign campaign, Recipient recipient, String domain,
+                                        CampaignMessageFactory messages, SendPriority priority,
+                                        SendMetrics.CampaignMeters meters, LongConsumer transmitted)
+            throws MessagingException {
+        // Generate tracking ID
+        String trackingId = UUID.randomUUID().toString();
         
-        // Add tracking pixel
-        String trackingPixel = String.format(
-                "<img src=\"%s/api/tracking/pixel/%s\" width=\"1\" height=\"1\" style=\"display:none;\" />",
-                baseUrl, trackingId);
+        // Render the recipient's fields into the prepared message, tracking pixel included
+        long renderStart = System.nanoTime();
+        String unsubscribeToken = messages.usesUnsubscribeUrl()
+                ? trackingService.generateUnsubscribeToken(recipient, campaign)
+                : null;
+        MimeMessage message = messages.create(recipient, trackingId, unsubscribeToken);
+        meters.recordRender(System.nanoTime() - renderStart);
         
-        content += trackingPixel;
+        long sendStart = System.nanoTime();
+        try {
+            transportPool.send(message, priority, transmitted);
+        } finally {
+            meters.recordSmtpSend(domain, System.nanoTime() - sendStart);
+        }
         
-        content = trackingService.processLinksForTracking(content, campaign, recipient);
+        log.debug("Email sent to {} for campaign {}", recipient.getEmail(), campaign.getName());
         
-        return content;
+        return trackingId;
     }
     
     public void sendTestEmail(Campaign campaign, String testEmail) throws MessagingException, java.io.UnsupportedEncodingException {
@@ -160,6 +434,33 @@ public class EmailService {
         tracking.setLinkUrl(linkUrl);
         tracking.setEventTime(LocalDateTime.now());
         
-        emailTrackingRepository.save(tracking);
+        emailTrackingWriter.write(tracking);
+    }
+    
+    /**
+     * Reads the campaign status at most once per {@code app.send.status-check-interval-ms}.
+     * Only called from the thread feeding the send engine.
+     */
+    private class StatusCheck implements BooleanSupplier {
+        
+        private final Long campaignId;
+        private long nextCheckAt;
+        private Campaign.CampaignStatus status = Campaign.CampaignStatus.SENDING;
+        private boolean stopRequested;
+        
+        StatusCheck(Long campaignId) {
+            this.campaignId = campaignId;
+        }
+        
+        @Override
+        public boolean getAsBoolean() {
+            long now = System.currentTimeMillis();
+            if (!stopRequested && now >= nextCheckAt) {
+                nextCheckAt = now + statusCheckIntervalMs;
+                status = campaignRepository.findStatusById(campaignId).orElse(Campaign.CampaignStatus.CANCELLED);
+                stopRequested = status != Campaign.CampaignStatus.SENDING;
+            }
+            return stopRequested;
+        }
     }
 }
@@ -0,0 +1,149 @@
+package com.emailcampaign.service;
+
+import com.emailcampaign.model.EmailTracking;
+import com.emailcampaign.repository.EmailTrackingRepository;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Buffers tracking events and writes them in JDBC batches. A batch is flushed as soon as
+ * {@code app.tracking.batch.size} events are pending, on a fixed interval, and on shutdown.
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class EmailTrackingWriter {
+
+    private final EmailTrackingRepository emailTrackingRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final JdbcTemplate jdbcTemplate;
+
+    @Value("${app.tracking.batch.size:500}")
+    private int batchSize;
+
+    @Value("${app.tracking.batch.capacity:10000}")
+    private int capacity;
+
+    private final ReentrantLock flushLock = new ReentrantLock();
+    private BlockingQueue<EmailTracking> pending;
+    private volatile boolean closed;
+
+    @PostConstruct
+    public void init() {
+        pending = new ArrayBlockingQueue<>(capacity);
+        alignIdSequence();
+    }
+
+    public void write(EmailTracking tracking) {
+        if (closed) {
+            emailTrackingRepository.save(tracking);
+            return;
+        }
+
+        try {
+            // Blocks producers when the writer falls behind instead of growing without bound
+            pending.put(tracking);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            emailTrackingRepository.save(tracking);
+            return;
+        }
+
+        if (pending.size() >= batchSize && flushLock.tryLock()) {
+            try {
+                while (pending.size() >= batchSize) {
+                    drainBatch();
+                }
+            } finally {
+                flushLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Writes events that come batched already straight away, without buffering them again.
+     */
+    public void writeAll(List<EmailTracking> batch) {
+        if (!batch.isEmpty()) {
+            writeBatch(batch);
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${app.tracking.batch.flush-interval-ms:1000}")
+    public void flush() {
+        flushLock.lock();
+        try {
+            while (drainBatch() > 0) {
+                // keep draining until the buffer is empty
+            }
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        closed = true;
+        flush();
+    }
+
+    private int drainBatch() {
+        List<EmailTracking> batch = new ArrayList<>(batchSize);
+        pending.drainTo(batch, batchSize);
+        if (!batch.isEmpty()) {
+            writeBatch(batch);
+        }
+        return batch.size();
+    }
+
+    private void writeBatch(List<EmailTracking> batch) {
+        try {
+            transactionTemplate.executeWithoutResult(status -> emailTrackingRepository.saveAll(batch));
+            log.debug("Wrote batch of {} tracking events", batch.size());
+        } catch (DataAccessException e) {
+            log.error("Batch insert of {} tracking events failed, retrying individually: {}",
+                    batch.size(), e.getMessage());
+            writeIndividually(batch);
+        }
+    }
+
+    private void writeIndividually(List<EmailTracking> batch) {
+        for (EmailTracking tracking : batch) {
+            // Ids assigned by the rolled back batch must not be treated as existing rows
+            tracking.setId(null);
+            try {
+                emailTrackingRepository.save(tracking);
+            } catch (DataAccessException e) {
+                log.error("Dropping tracking event {} for campaign {}: {}", tracking.getEventType(),
+                        tracking.getCampaign().getId(), e.getMessage());
+            }
+        }
+    }
+
+    private void alignIdSequence() {
+        // Rows inserted under the old IDENTITY strategy may be ahead of the pooled sequence
+        try {
+            jdbcTemplate.query("SELECT setval('email_tracking_seq', m.max_id) " +
+                    "FROM (SELECT MAX(id) AS max_id FROM email_tracking) m, email_tracking_seq s " +
+                    "WHERE m.max_id IS NOT NULL AND s.last_value < m.max_id", rs -> {
+                log.info("Advanced email_tracking_seq to {}", rs.getLong(1));
+            });
+        } catch (DataAccessException e) {
+            log.warn("Could not align email_tracking_seq with existing rows: {}", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package com.emailcampaign.service;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.function.Function;
+
+/**
+ * Lazily walks rows ordered by id, fetching one fixed-size chunk at a time with {@code id > lastId}.
+ * The optional callback runs between chunks, before the next one is fetched.
+ */
+class KeysetIterable<T> implements Iterable<T> {
+
+    private final int chunkSize;
+    private final Function<Long, List<T>> fetchAfter;
+    private final Function<T, Long> idOf;
+    private final Runnable betweenChunks;
+
+    KeysetIterable(int chunkSize, Function<Long, List<T>> fetchAfter, Function<T, Long> idOf, Runnable betweenChunks) {
+        this.chunkSize = chunkSize;
+        this.fetchAfter = fetchAfter;
+        this.idOf = idOf;
+        this.betweenChunks = betweenChunks;
+    }
+
+    @Override
+    public Iterator<T> iterator() {
+        return new ChunkIterator();
+    }
+
+    private class ChunkIterator implements Iterator<T> {
+
+        private Iterator<T> current = Collections.emptyIterator();
+        private Long lastId = 0L;
+        private boolean exhausted;
+
+        @Override
+        public boolean hasNext() {
+            if (current.hasNext()) {
+                return true;
+            }
+            if (exhausted) {
+                return false;
+            }
+
+            if (lastId > 0 && betweenChunks != null) {
+                betweenChunks.run();
+            }
+
+            List<T> chunk = fetchAfter.apply(lastId);
+            if (chunk.size() < chunkSize) {
+                exhausted = true;
+            }
+            if (chunk.isEmpty()) {
+                return false;
+            }
+
+            lastId = idOf.apply(chunk.get(chunk.size() - 1));
+            current = chunk.iterator();
+            return true;
+        }
+
+        @Override
+        public T next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return current.next();
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package com.emailcampaign.service;
+
+import jakarta.mail.MessagingException;
+import jakarta.mail.Session;
+import org.eclipse.angus.mail.smtp.SMTPMessage;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Enumeration;
+
+/**
+ * A message whose body is already encoded, as set by its Content-Transfer-Encoding header. The
+ * body parts are written out one after the other as they are, instead of being joined and
+ * encoded again through a DataHandler, so parts shared by many messages are never copied.
+ */
+class PreparedMimeMessage extends SMTPMessage {
+
+    private static final byte[] CRLF = {'\r', '\n'};
+
+    private final byte[][] body;
+
+    PreparedMimeMessage(Session session, byte[][] body) {
+        super(session);
+        this.body = body;
+    }
+
+    @Override
+    protected void updateHeaders() throws MessagingException {
+        // Content headers are set by whoever prepared the body
+        setHeader("MIME-Version", "1.0");
+        updateMessageID();
+    }
+
+    @Override
+    public int getSize() {
+        int size = 0;
+        for (byte[] part : body) {
+            size += part.length;
+        }
+        return size;
+    }
+
+    @Override
+    protected InputStream getContentStream() {
+        ByteArrayOutputStream content = new ByteArrayOutputStream(getSize());
+        for (byte[] part : body) {
+            content.writeBytes(part);
+        }
+        return new ByteArrayInputStream(content.toByteArray());
+    }
+
+    @Override
+    public void writeTo(OutputStream os, String[] ignoreList) throws IOException, MessagingException {
+        if (!saved) {
+            saveChanges();
+        }
+        Enumeration<String> lines = getNonMatchingHeaderLines(ignoreList);
+        while (lines.hasMoreElements()) {
+            os.write(lines.nextElement().getBytes(StandardCharsets.UTF_8));
+            os.write(CRLF);
+        }
+        os.write(CRLF);
+        for (byte[] part : body) {
+            os.write(part);
+        }
+        os.flush();
+    }
+}
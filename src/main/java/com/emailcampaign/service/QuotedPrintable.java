@@ -0,0 +1,74 @@
+package com.emailcampaign.service;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Quoted-printable encoding (RFC 2045) of independent pieces of one body. Every piece starts at
+ * the beginning of a line and ends on a line break, a soft one if the text has none, so encoded
+ * pieces can be concatenated in any order and still decode to the concatenated text.
+ */
+final class QuotedPrintable {
+
+    // Encoded characters per line, leaving room for the "=" of a soft line break
+    private static final int MAX_LINE = 75;
+    private static final byte[] HEX = "0123456789ABCDEF".getBytes(StandardCharsets.US_ASCII);
+
+    private QuotedPrintable() {
+    }
+
+    static byte[] encode(String text) {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        // Worst case: every byte escaped, plus a soft line break per line
+        byte[] out = new byte[bytes.length * 3 + (bytes.length * 3 / MAX_LINE + 1) * 3];
+        int length = 0;
+        int column = 0;
+
+        for (int i = 0; i < bytes.length; i++) {
+            int b = bytes[i] & 0xff;
+            if (b == '\r' && i + 1 < bytes.length && bytes[i + 1] == '\n') {
+                continue;
+            }
+            if (b == '\n') {
+                out[length++] = '\r';
+                out[length++] = '\n';
+                column = 0;
+                continue;
+            }
+
+            // Whitespace at the end of a line would be stripped in transit
+            boolean literal = (b >= 33 && b <= 126 && b != '=')
+                    || ((b == ' ' || b == '\t') && !endsLine(bytes, i + 1));
+            int width = literal ? 1 : 3;
+            if (column + width > MAX_LINE) {
+                length = softBreak(out, length);
+                column = 0;
+            }
+            if (literal) {
+                out[length++] = (byte) b;
+            } else {
+                out[length++] = '=';
+                out[length++] = HEX[b >> 4];
+                out[length++] = HEX[b & 0x0f];
+            }
+            column += width;
+        }
+
+        if (column > 0) {
+            length = softBreak(out, length);
+        }
+        return Arrays.copyOf(out, length);
+    }
+
+    private static boolean endsLine(byte[] bytes, int next) {
+        return next < bytes.length && (bytes[next] == '\n'
+                || (bytes[next] == '\r' && next + 1 < bytes.length && bytes[next + 1] == '\n'));
+    }
+
+    private static int softBreak(byte[] out, int length) {
+        out[length++] = '=';
+        out[length++] = '\r';
+        out[length++] = '\n';
+        return length;
+    }
+}
@@ -4,6 +4,7 @@ import com.emailcampaign.dto.RecipientDto;
 import com.emailcampaign.dto.RecipientListDto;
 import com.emailcampaign.model.Recipient;
 import com.emailcampaign.model.RecipientList;
+import com.emailcampaign.model.Suppression;
 import com.emailcampaign.model.User;
 import com.emailcampaign.repository.RecipientListRepository;
 import com.emailcampaign.repository.RecipientRepository;
@@ -36,6 +37,8 @@ public class RecipientService {
     private final RecipientListRepository recipientListRepository;
     private final RecipientRepository recipientRepository;
     private final SystemLogService systemLogService;
+    private final RecipientStreamer recipientStreamer;
+    private final SuppressionService suppressionService;
     
     // Recipient List Management
     public RecipientList createRecipientList(RecipientListDto dto, User user) {
@@ -170,6 +173,7 @@ public class RecipientService {
                     recipient.setStatus(Recipient.RecipientStatus.UNSUBSCRIBED);
                     recipient.setUnsubscribedAt(java.time.LocalDateTime.now());
                     recipientRepository.save(recipient);
+                    suppressionService.suppress(recipient.getEmail(), Suppression.Reason.UNSUBSCRIBED);
                 });
     }
     
@@ -228,9 +232,7 @@ public class RecipientService {
         try (CSVPrinter printer = new CSVPrinter(writer, CSVFormat.DEFAULT
                 .withHeader("email", "firstName", "lastName", "status", "subscribedAt"))) {
             
-            List<Recipient> recipients = recipientRepository.findByRecipientList(recipientList, Pageable.unpaged()).getContent();
-            
-            for (Recipient recipient : recipients) {
+            for (Recipient recipient : recipientStreamer.stream(recipientList)) {
                 printer.printRecord(
                         recipient.getEmail(),
                         recipient.getFirstName(),
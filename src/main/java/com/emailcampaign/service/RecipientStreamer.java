@@ -0,0 +1,45 @@
+package com.emailcampaign.service;
+
+import com.emailcampaign.model.Recipient;
+import com.emailcampaign.model.RecipientList;
+import com.emailcampaign.repository.RecipientRepository;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Component;
+
+/**
+ * Walks a recipient list in fixed-size chunks ordered by id ({@code id > lastId}), clearing the
+ * persistence context between chunks so memory stays flat regardless of list size.
+ */
+@Component
+@RequiredArgsConstructor
+public class RecipientStreamer {
+
+    private final RecipientRepository recipientRepository;
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Value("${app.recipients.stream-chunk-size:1000}")
+    private int chunkSize;
+
+    /**
+     * Streams every recipient of the list, whatever their status.
+     */
+    public Iterable<Recipient> stream(RecipientList recipientList) {
+        return new KeysetIterable<>(chunkSize,
+                lastId -> recipientRepository.findChunkByRecipientList(recipientList, lastId, PageRequest.of(0, chunkSize)),
+                Recipient::getId, this::detachAll);
+    }
+
+    private void detachAll() {
+        // Flush first so a transactional caller never loses pending changes to the clear
+        if (entityManager.isJoinedToTransaction()) {
+            entityManager.flush();
+        }
+        entityManager.clear();
+    }
+}
@@ -0,0 +1,160 @@
+package com.emailcampaign.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Meters of the campaign send pipeline, tagged by campaign id and recipient domain. Domains
+ * not configured under {@code app.throttle.domains} share the "other" tag. Meters are looked up
+ * once per campaign and domain and cached for the duration of the send; {@link #release} removes
+ * the campaign's meters from the registry again, so series do not pile up with every campaign.
+ * <ul>
+ *   <li>{@code email.send}: whole handling of one message, from rendering to the tracking write</li>
+ *   <li>{@code email.render}: body rendering per message</li>
+ *   <li>{@code email.smtp.send}: SMTP hand-off per message, published as a histogram</li>
+ *   <li>{@code email.tracking.write}: queueing the tracking event, including back-pressure waits</li>
+ *   <li>{@code email.sent}: messages accepted by the relay; its rate is the send throughput</li>
+ *   <li>{@code email.failures}: failed attempts by exception class and transient/permanent type</li>
+ *   <li>{@code email.send.queue.wait}: time a message waits for send capacity, by {@link SendPriority}</li>
+ * </ul>
+ */
+@Component
+@RequiredArgsConstructor
+public class SendMetrics {
+
+    private final MeterRegistry meterRegistry;
+    private final DomainRateLimiter rateLimiter;
+
+    private final Map<Long, CampaignMeters> campaigns = new ConcurrentHashMap<>();
+    private final Map<SendPriority, Timer> queueWaits = new EnumMap<>(SendPriority.class);
+
+    @PostConstruct
+    public void init() {
+        for (SendPriority priority : SendPriority.values()) {
+            queueWaits.put(priority, Timer.builder("email.send.queue.wait")
+                    .description("Time a message waits for send capacity before it is handled")
+                    .tag("priority", priority.tag())
+                    .publishPercentileHistogram()
+                    .minimumExpectedValue(Duration.ofMillis(1))
+                    .maximumExpectedValue(Duration.ofMinutes(10))
+                    .register(meterRegistry));
+        }
+    }
+
+    public CampaignMeters forCampaign(Long campaignId) {
+        return campaigns.computeIfAbsent(campaignId, CampaignMeters::new);
+    }
+
+    public void release(Long campaignId) {
+        CampaignMeters meters = campaigns.remove(campaignId);
+        if (meters != null) {
+            meters.registered.forEach(meterRegistry::remove);
+        }
+    }
+
+    public void recordQueueWait(SendPriority priority, long nanos) {
+        queueWaits.get(priority).record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public class CampaignMeters {
+
+        private final String campaign;
+        private final Timer send;
+        private final Timer render;
+        private final Timer trackingWrite;
+        private final Map<String, DomainMeters> domains = new ConcurrentHashMap<>();
+        private final Map<FailureKey, Counter> failures = new ConcurrentHashMap<>();
+        private final Queue<Meter> registered = new ConcurrentLinkedQueue<>();
+
+        CampaignMeters(Long campaignId) {
+            this.campaign = String.valueOf(campaignId);
+            this.send = register(Timer.builder("email.send")
+                    .description("Time to handle one message, from rendering to the tracking write")
+                    .tag("campaign", campaign)
+                    .register(meterRegistry));
+            this.render = register(Timer.builder("email.render")
+                    .description("Time to render a campaign body for one recipient")
+                    .tag("campaign", campaign)
+                    .register(meterRegistry));
+            this.trackingWrite = register(Timer.builder("email.tracking.write")
+                    .description("Time to hand a send event to the tracking writer")
+                    .tag("campaign", campaign)
+                    .register(meterRegistry));
+        }
+
+        public void recordSend(long nanos) {
+            send.record(nanos, TimeUnit.NANOSECONDS);
+        }
+
+        public void recordRender(long nanos) {
+            render.record(nanos, TimeUnit.NANOSECONDS);
+        }
+
+        public void recordTrackingWrite(long nanos) {
+            trackingWrite.record(nanos, TimeUnit.NANOSECONDS);
+        }
+
+        public void recordSmtpSend(String domain, long nanos) {
+            domain(domain).smtpSend.record(nanos, TimeUnit.NANOSECONDS);
+        }
+
+        public void recordSent(String domain) {
+            domain(domain).sent.increment();
+        }
+
+        public void recordFailure(String domain, Exception e, SmtpFailureClassifier.FailureType failureType) {
+            FailureKey key = new FailureKey(rateLimiter.metricTag(domain), e.getClass().getSimpleName(), failureType);
+            failures.computeIfAbsent(key, k -> register(meterRegistry.counter("email.failures",
+                    "campaign", campaign,
+                    "domain", k.domainTag(),
+                    "exception", k.exception(),
+                    "type", k.type().name().toLowerCase(Locale.ROOT)))).increment();
+        }
+
+        private <M extends Meter> M register(M meter) {
+            registered.add(meter);
+            return meter;
+        }
+
+        private DomainMeters domain(String domain) {
+            return domains.computeIfAbsent(rateLimiter.metricTag(domain), this::createDomainMeters);
+        }
+
+        private DomainMeters createDomainMeters(String domainTag) {
+            Timer smtpSend = register(Timer.builder("email.smtp.send")
+                    .description("Time to transmit one message to the SMTP relay")
+                    .tag("campaign", campaign)
+                    .tag("domain", domainTag)
+                    .publishPercentileHistogram()
+                    .minimumExpectedValue(Duration.ofMillis(1))
+                    .maximumExpectedValue(Duration.ofSeconds(30))
+                    .register(meterRegistry));
+            Counter sent = register(Counter.builder("email.sent")
+                    .description("Messages accepted by the SMTP relay")
+                    .tag("campaign", campaign)
+                    .tag("domain", domainTag)
+                    .register(meterRegistry));
+            return new DomainMeters(smtpSend, sent);
+        }
+    }
+
+    private record DomainMeters(Timer smtpSend, Counter sent) {
+    }
+
+    private record FailureKey(String domainTag, String exception, SmtpFailureClassifier.FailureType type) {
+    }
+}
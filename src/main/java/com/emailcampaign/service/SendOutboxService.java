@@ -0,0 +1,241 @@
+package com.emailcampaign.service;
+
+import com.emailcampaign.model.Campaign;
+import com.emailcampaign.model.Recipient;
+import com.emailcampaign.model.SendOutboxEntry;
+import com.emailcampaign.model.Suppression;
+import com.emailcampaign.repository.CampaignRepository;
+import com.emailcampaign.repository.RecipientRepository;
+import com.emailcampaign.repository.SendOutboxRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class SendOutboxService {
+
+    private static final int MAX_IDS_PER_UPDATE = 1000;
+
+    private final SendOutboxRepository sendOutboxRepository;
+    private final CampaignRepository campaignRepository;
+    private final RecipientRepository recipientRepository;
+    private final SuppressionService suppressionService;
+    private final TransactionTemplate transactionTemplate;
+
+    @Value("${app.recipients.stream-chunk-size:1000}")
+    private int chunkSize;
+
+    @Value("${app.send.checkpoint-interval:500}")
+    private int checkpointInterval;
+
+    @Value("${app.send.retry.max-attempts:4}")
+    private int maxAttempts;
+
+    @Value("${app.send.retry.initial-backoff-seconds:30}")
+    private double initialBackoffSeconds;
+
+    @Value("${app.send.retry.max-backoff-seconds:3600}")
+    private double maxBackoffSeconds;
+
+    /**
+     * Queues every active recipient of the campaign's list that is not queued yet, and sets the
+     * campaign's progress counters from the outbox. Entries already in the outbox keep their
+     * state, so enqueueing again only adds recipients that joined the list since, and the counters
+     * still cover everything sent or failed before.
+     *
+     * @return the number of recipients in the campaign's outbox
+     */
+    public int enqueue(Campaign campaign) {
+        int queued = sendOutboxRepository.enqueueActiveRecipients(
+                campaign.getId(), campaign.getRecipientList().getId());
+        
+        int total = 0;
+        int sent = 0;
+        int failed = 0;
+        for (Object[] row : sendOutboxRepository.countByCampaignIdGroupByState(campaign.getId())) {
+            SendOutboxEntry.OutboxState state = (SendOutboxEntry.OutboxState) row[0];
+            int count = ((Long) row[1]).intValue();
+            total += count;
+            // As the checkpoint counts them: suppressed entries are failures, cancelled ones neither
+            if (state == SendOutboxEntry.OutboxState.SENT) {
+                sent += count;
+            } else if (state == SendOutboxEntry.OutboxState.FAILED || state == SendOutboxEntry.OutboxState.SUPPRESSED) {
+                failed += count;
+            }
+        }
+        campaignRepository.setProgress(campaign.getId(), total, sent, failed);
+        campaign.setTotalRecipients(total);
+        campaign.setSentCount(sent);
+        campaign.setFailedCount(failed);
+        
+        log.info("Queued {} recipients for campaign: {} ({} in total)", queued, campaign.getName(), total);
+        return total;
+    }
+    
+    public int cancelPending(Long campaignId) {
+        return sendOutboxRepository.updateStateByCampaignId(campaignId, SendOutboxEntry.OutboxState.PENDING,
+                SendOutboxEntry.OutboxState.CANCELLED, LocalDateTime.now());
+    }
+
+    /**
+     * Pending entries of the shard that are due now; entries waiting for a retry backoff are skipped.
+     */
+    public Iterable<SendOutboxEntry> pendingEntries(Long campaignId, SendShardService.Lease shard,
+                                                    Runnable betweenChunks) {
+        return new KeysetIterable<>(chunkSize,
+                lastId -> sendOutboxRepository.findDueChunkInRange(campaignId, SendOutboxEntry.OutboxState.PENDING,
+                        Math.max(lastId, shard.getFirstOutboxId() - 1), shard.getLastOutboxId(),
+                        PageRequest.of(0, chunkSize)),
+                SendOutboxEntry::getId, betweenChunks);
+    }
+
+    public long countPending(Long campaignId) {
+        return sendOutboxRepository.countByCampaignIdAndState(campaignId, SendOutboxEntry.OutboxState.PENDING);
+    }
+
+    public Checkpoint checkpoint(Long campaignId) {
+        return new Checkpoint(campaignId);
+    }
+
+    /**
+     * Collects outbox entries completed by send workers and persists their state in bulk updates,
+     * together with the campaign's sent and failed counters and the status of bounced recipients.
+     * A crash can only lose progress recorded since the last flush, so at most
+     * {@code app.send.checkpoint-interval} recipients (plus those in flight) are sent twice on resume.
+     */
+    public class Checkpoint {
+
+        private final Long campaignId;
+
+        private final Queue<Long> sentIds = new ConcurrentLinkedQueue<>();
+        private final Queue<Long> failedIds = new ConcurrentLinkedQueue<>();
+        private final Queue<Long> suppressedIds = new ConcurrentLinkedQueue<>();
+        private final Queue<Long> retryIds = new ConcurrentLinkedQueue<>();
+        private final Queue<Long> bouncedRecipientIds = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger unflushed = new AtomicInteger();
+        private final ReentrantLock flushLock = new ReentrantLock();
+
+        Checkpoint(Long campaignId) {
+            this.campaignId = campaignId;
+        }
+
+        public void markSent(Long entryId) {
+            sentIds.add(entryId);
+            flushIfDue();
+        }
+
+        public void markFailed(Long entryId) {
+            failedIds.add(entryId);
+            flushIfDue();
+        }
+
+        /**
+         * Skips an entry whose address was suppressed after it was queued; counted as failed.
+         */
+        public void markSuppressed(Long entryId) {
+            suppressedIds.add(entryId);
+            flushIfDue();
+        }
+
+        /**
+         * Fails the entry for good, marks its recipient BOUNCED and suppresses the address.
+         */
+        public void markBounced(SendOutboxEntry entry) {
+            bouncedRecipientIds.add(entry.getRecipient().getId());
+            markFailed(entry.getId());
+        }
+
+        /**
+         * Requeues the entry with backoff, unless it has used up its retry budget.
+         *
+         * @return false if the budget is exhausted and the entry was failed instead
+         */
+        public boolean markRetry(SendOutboxEntry entry) {
+            if (entry.getAttempts() + 1 >= maxAttempts) {
+                markFailed(entry.getId());
+                return false;
+            }
+            retryIds.add(entry.getId());
+            flushIfDue();
+            return true;
+        }
+
+        public void flush() {
+            flushLock.lock();
+            try {
+                LocalDateTime now = LocalDateTime.now();
+                updateState(sentIds, SendOutboxEntry.OutboxState.SENT, now);
+                updateState(failedIds, SendOutboxEntry.OutboxState.FAILED, now);
+                updateState(suppressedIds, SendOutboxEntry.OutboxState.SUPPRESSED, now);
+                scheduleRetries();
+                markRecipientsBounced(now);
+            } finally {
+                flushLock.unlock();
+            }
+        }
+
+        private void flushIfDue() {
+            if (unflushed.incrementAndGet() >= checkpointInterval && flushLock.tryLock()) {
+                try {
+                    flush();
+                } finally {
+                    flushLock.unlock();
+                }
+            }
+        }
+
+        private void updateState(Queue<Long> ids, SendOutboxEntry.OutboxState state, LocalDateTime now) {
+            List<Long> batch;
+            while (!(batch = drain(ids)).isEmpty()) {
+                writeState(batch, state, now);
+            }
+        }
+
+        private void scheduleRetries() {
+            List<Long> batch;
+            while (!(batch = drain(retryIds)).isEmpty()) {
+                sendOutboxRepository.scheduleRetry(batch, initialBackoffSeconds, maxBackoffSeconds);
+                unflushed.addAndGet(-batch.size());
+            }
+        }
+
+        private void markRecipientsBounced(LocalDateTime now) {
+            List<Long> batch;
+            while (!(batch = drain(bouncedRecipientIds)).isEmpty()) {
+                recipientRepository.updateStatus(batch, Recipient.RecipientStatus.BOUNCED, now);
+                suppressionService.suppressRecipients(batch, Suppression.Reason.BOUNCED);
+            }
+        }
+
+        private List<Long> drain(Queue<Long> ids) {
+            List<Long> batch = new ArrayList<>();
+            Long id;
+            while (batch.size() < MAX_IDS_PER_UPDATE && (id = ids.poll()) != null) {
+                batch.add(id);
+            }
+            return batch;
+        }
+
+        private void writeState(List<Long> batch, SendOutboxEntry.OutboxState state, LocalDateTime now) {
+            int sent = state == SendOutboxEntry.OutboxState.SENT ? batch.size() : 0;
+            transactionTemplate.executeWithoutResult(status -> {
+                sendOutboxRepository.updateState(batch, state, now);
+                campaignRepository.addProgress(campaignId, sent, batch.size() - sent);
+            });
+            unflushed.addAndGet(-batch.size());
+        }
+    }
+}
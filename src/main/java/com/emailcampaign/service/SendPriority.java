@@ -0,0 +1,15 @@
+package com.emailcampaign.service;
+
+import java.util.Locale;
+
+/**
+ * Send classes. Small and transactional campaigns get their own capacity in the campaign
+ * executors, the send engine and the SMTP pool, so they never queue behind bulk sends.
+ */
+public enum SendPriority {
+    TRANSACTIONAL, BULK;
+
+    public String tag() {
+        return name().toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,80 @@
+package com.emailcampaign.service;
+
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Campaign sends running in this instance, with the throughput of each over a short sliding window.
+ * Registering a run also guards against two send loops draining the same campaign's outbox.
+ */
+@Component
+public class SendProgressTracker {
+
+    private static final int WINDOW_SECONDS = 10;
+
+    private final Map<Long, Throughput> activeRuns = new ConcurrentHashMap<>();
+
+    /**
+     * @return false if a send of the campaign is already running here
+     */
+    public boolean start(Long campaignId) {
+        return activeRuns.putIfAbsent(campaignId, new Throughput(currentSecond())) == null;
+    }
+
+    public void finish(Long campaignId) {
+        activeRuns.remove(campaignId);
+    }
+
+    public void recordCompleted(Long campaignId) {
+        Throughput throughput = activeRuns.get(campaignId);
+        if (throughput != null) {
+            throughput.record(currentSecond());
+        }
+    }
+
+    /**
+     * Messages completed per second over the last {@value #WINDOW_SECONDS} seconds, 0 when not running.
+     */
+    public double throughput(Long campaignId) {
+        Throughput throughput = activeRuns.get(campaignId);
+        return throughput != null ? throughput.perSecond(currentSecond()) : 0;
+    }
+
+    private static long currentSecond() {
+        return System.currentTimeMillis() / 1000;
+    }
+
+    private static class Throughput {
+
+        private final long startedAt;
+        private final long[] seconds = new long[WINDOW_SECONDS];
+        private final long[] counts = new long[WINDOW_SECONDS];
+
+        Throughput(long startedAt) {
+            this.startedAt = startedAt;
+        }
+
+        synchronized void record(long second) {
+            int slot = (int) (second % WINDOW_SECONDS);
+            if (seconds[slot] != second) {
+                seconds[slot] = second;
+                counts[slot] = 0;
+            }
+            counts[slot]++;
+        }
+
+        synchronized double perSecond(long now) {
+            // The current second is still filling up, so the window covers the completed seconds before it
+            long total = 0;
+            for (int i = 0; i < WINDOW_SECONDS; i++) {
+                if (seconds[i] < now && seconds[i] >= now - WINDOW_SECONDS) {
+                    total += counts[i];
+                }
+            }
+            long window = Math.min(WINDOW_SECONDS, now - startedAt);
+            return window > 0 ? (double) total / window : 0;
+        }
+    }
+}
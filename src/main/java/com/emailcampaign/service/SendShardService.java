@@ -0,0 +1,167 @@
+package com.emailcampaign.service;
+
+import com.emailcampaign.model.Campaign;
+import com.emailcampaign.model.SendShard;
+import com.emailcampaign.repository.SendShardRepository;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+
+/**
+ * Splits a campaign's outbox into shards of {@code app.send.shard.size} entries that any instance
+ * can lease through the database, so one campaign is sent by every instance that joins it. A lease
+ * lasts {@code app.send.shard.lease-seconds} and is renewed while the shard is being sent; the
+ * shards of an instance that dies become leasable again once their leases expire.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class SendShardService {
+
+    private final SendShardRepository sendShardRepository;
+    private final TransactionTemplate transactionTemplate;
+
+    @Value("${app.send.shard.size:5000}")
+    private int shardSize;
+
+    @Value("${app.send.shard.lease-seconds:60}")
+    private int leaseSeconds;
+
+    // Set it to something stable per instance so a restarted instance takes its shards back right away
+    @Value("${app.send.node-id:}")
+    private String nodeId;
+
+    @PostConstruct
+    public void init() {
+        if (nodeId.isBlank()) {
+            nodeId = hostname() + "-" + UUID.randomUUID().toString().substring(0, 8);
+        }
+        log.info("Send shard leases owned as: {}", nodeId);
+    }
+
+    /**
+     * Creates shards for the outbox entries queued since the campaign's last shard was created,
+     * e.g. recipients that joined the list before a reschedule.
+     *
+     * @return the number of shards created
+     */
+    public int createShards(Long campaignId) {
+        return sendShardRepository.createShards(campaignId, shardSize);
+    }
+
+    /**
+     * Leases the next shard of the campaign that is neither done nor leased by another instance.
+     * Campaigns queued before sharding get their shards on first use.
+     */
+    public Optional<Lease> lease(Long campaignId) {
+        if (!sendShardRepository.existsByCampaignId(campaignId)) {
+            createShards(campaignId);
+        }
+        return transactionTemplate.execute(status -> sendShardRepository.lockLeasable(campaignId, nodeId)
+                .map(shard -> {
+                    sendShardRepository.acquireLease(shard.getId(), nodeId, leaseSeconds);
+                    return new Lease(shard);
+                }));
+    }
+
+    public boolean hasOpenShards(Long campaignId) {
+        return sendShardRepository.countByCampaignIdAndState(campaignId, SendShard.ShardState.OPEN) > 0;
+    }
+
+    /**
+     * Milliseconds until an open shard's lease expires or its next retry is due, 0 if one is leasable now.
+     */
+    public long millisUntilLeasable(Long campaignId) {
+        Double seconds = sendShardRepository.secondsUntilLeasable(campaignId);
+        return seconds != null && seconds > 0 ? (long) Math.ceil(seconds * 1000) : 0;
+    }
+
+    public long countPendingOutsideShards(Long campaignId) {
+        return sendShardRepository.countPendingOutsideShards(campaignId);
+    }
+
+    public int closeShards(Long campaignId) {
+        return sendShardRepository.closeShards(campaignId);
+    }
+
+    public List<Campaign> findCampaignsToJoin() {
+        return sendShardRepository.findSendingCampaignsWithLeasableShards();
+    }
+
+    private static String hostname() {
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        } catch (UnknownHostException e) {
+            return "unknown-host";
+        }
+    }
+
+    /**
+     * A shard leased by this instance. Renewal is driven by the send loop's stop check.
+     */
+    public class Lease {
+
+        private final Long shardId;
+        private final int shardIndex;
+        private final Long firstOutboxId;
+        private final Long lastOutboxId;
+        private long renewAt;
+        private boolean lost;
+
+        Lease(SendShard shard) {
+            this.shardId = shard.getId();
+            this.shardIndex = shard.getShardIndex();
+            this.firstOutboxId = shard.getFirstOutboxId();
+            this.lastOutboxId = shard.getLastOutboxId();
+            this.renewAt = nextRenewal();
+        }
+
+        public int getShardIndex() {
+            return shardIndex;
+        }
+
+        public Long getFirstOutboxId() {
+            return firstOutboxId;
+        }
+
+        public Long getLastOutboxId() {
+            return lastOutboxId;
+        }
+
+        public boolean isLost() {
+            return lost;
+        }
+
+        /**
+         * Renews the lease once a third of it has passed.
+         *
+         * @return false if the lease expired and another instance took the shard over
+         */
+        public boolean renewIfDue() {
+            if (!lost && System.currentTimeMillis() >= renewAt) {
+                lost = sendShardRepository.renewLease(shardId, nodeId, leaseSeconds) == 0;
+                renewAt = nextRenewal();
+            }
+            return !lost;
+        }
+
+        public void release() {
+            if (!lost) {
+                sendShardRepository.releaseLease(shardId, nodeId);
+            }
+        }
+
+        private long nextRenewal() {
+            return System.currentTimeMillis() + leaseSeconds * 1000L / 3;
+        }
+    }
+}
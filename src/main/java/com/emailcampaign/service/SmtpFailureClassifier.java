@@ -0,0 +1,56 @@
+package com.emailcampaign.service;
+
+import jakarta.mail.SendFailedException;
+import jakarta.mail.internet.AddressException;
+import org.eclipse.angus.mail.smtp.SMTPAddressFailedException;
+import org.eclipse.angus.mail.smtp.SMTPSendFailedException;
+import org.eclipse.angus.mail.smtp.SMTPSenderFailedException;
+
+/**
+ * Decides whether a failed send is worth retrying, and whether it is the recipient's fault.
+ * Only a rejected recipient (RCPT) with a 5xx reply or a malformed address is PERMANENT, which
+ * bounces the recipient. A 5xx reply about the message itself, such as 552 (too large) or
+ * 554 (content or policy) after DATA, is MESSAGE_REJECTED: the same message would fail again,
+ * but the address is fine. Any 4xx reply and everything else (dropped connections, timeouts,
+ * greeting or authentication errors, unexpected exceptions) is transient, since it says nothing
+ * about the recipient's address. A rejected envelope sender is transient for the same reason.
+ */
+public final class SmtpFailureClassifier {
+
+    private static final int MAX_CAUSE_DEPTH = 10;
+
+    public enum FailureType {
+        TRANSIENT, PERMANENT, MESSAGE_REJECTED
+    }
+
+    private SmtpFailureClassifier() {
+    }
+
+    public static FailureType classify(Throwable failure) {
+        Throwable current = failure;
+        for (int depth = 0; current != null && depth < MAX_CAUSE_DEPTH; depth++) {
+            if (current instanceof SMTPSenderFailedException) {
+                return FailureType.TRANSIENT;
+            }
+            if (current instanceof SMTPAddressFailedException e) {
+                return isPermanent(e.getReturnCode()) ? FailureType.PERMANENT : FailureType.TRANSIENT;
+            }
+            if (current instanceof SMTPSendFailedException e && e.getReturnCode() > 0) {
+                return isPermanent(e.getReturnCode()) ? FailureType.MESSAGE_REJECTED : FailureType.TRANSIENT;
+            }
+            if (current instanceof AddressException) {
+                return FailureType.PERMANENT;
+            }
+            if (current instanceof SendFailedException e && current.getCause() == null
+                    && e.getInvalidAddresses() != null && e.getInvalidAddresses().length > 0) {
+                return FailureType.PERMANENT;
+            }
+            current = current.getCause();
+        }
+        return FailureType.TRANSIENT;
+    }
+
+    private static boolean isPermanent(int replyCode) {
+        return replyCode >= 500 && replyCode < 600;
+    }
+}
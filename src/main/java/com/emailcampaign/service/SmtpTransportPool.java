@@ -0,0 +1,347 @@
+package com.emailcampaign.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.mail.Address;
+import jakarta.mail.MessagingException;
+import jakarta.mail.SendFailedException;
+import jakarta.mail.Session;
+import jakarta.mail.Transport;
+import jakarta.mail.internet.MimeMessage;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.mail.javamail.JavaMailSenderImpl;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Date;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongConsumer;
+
+/**
+ * Pool of long-lived, authenticated SMTP connections for bulk sends. Each connection is reused
+ * for up to {@code max-messages-per-connection} messages, closed when it errors or sits idle
+ * past {@code idle-timeout-ms}, and reopened on demand.
+ * <p>
+ * SMTP I/O runs on one platform thread per connection: JavaMail's transports synchronize on
+ * themselves while waiting on the socket, which would pin the carrier of a virtual thread.
+ * <p>
+ * {@code priority-connections} of the connections are reserved for transactional sends.
+ * <p>
+ * Pooled connections get JavaMail's connect, read and write timeouts from
+ * {@code connection-timeout-ms}, {@code read-timeout-ms} and {@code write-timeout-ms}, and a
+ * sender waits at most {@code send-timeout-ms} for its message. A connection whose send timed out
+ * is closed rather than reused, and keeps its place in the pool until its I/O thread is free.
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class SmtpTransportPool {
+
+    // Connections idle for longer than this are probed before reuse
+    private static final long VALIDATE_AFTER_IDLE_MS = 5000;
+
+    private final JavaMailSenderImpl mailSender;
+    private final MeterRegistry meterRegistry;
+
+    @Value("${app.smtp.pool.size:8}")
+    private int poolSize;
+
+    @Value("${app.smtp.pool.max-messages-per-connection:100}")
+    private int maxMessagesPerConnection;
+
+    @Value("${app.smtp.pool.idle-timeout-ms:30000}")
+    private long idleTimeoutMs;
+
+    @Value("${app.smtp.pool.priority-connections:1}")
+    private int priorityConnections;
+
+    @Value("${app.smtp.pool.connection-timeout-ms:10000}")
+    private long connectionTimeoutMs;
+
+    @Value("${app.smtp.pool.read-timeout-ms:30000}")
+    private long readTimeoutMs;
+
+    @Value("${app.smtp.pool.write-timeout-ms:30000}")
+    private long writeTimeoutMs;
+
+    @Value("${app.smtp.pool.send-timeout-ms:120000}")
+    private long sendTimeoutMs;
+
+    private final Deque<PooledTransport> idleTransports = new ConcurrentLinkedDeque<>();
+    private final AtomicInteger openConnections = new AtomicInteger();
+    private int reservedConnections;
+    private Semaphore permits;
+    private Semaphore priorityPermits;
+    private ExecutorService ioExecutor;
+    private Session session;
+    private Counter connectionsCreated;
+    private final Map<SendPriority, Timer> waits = new EnumMap<>(SendPriority.class);
+
+    @PostConstruct
+    public void init() {
+        reservedConnections = Math.max(0, Math.min(priorityConnections, poolSize - 1));
+        permits = new Semaphore(poolSize - reservedConnections, true);
+        priorityPermits = new Semaphore(reservedConnections, true);
+        ioExecutor = Executors.newFixedThreadPool(poolSize, Thread.ofPlatform().daemon().name("smtp-io-", 0).factory());
+        session = createSession();
+
+        Gauge.builder("smtp.pool.size", () -> poolSize)
+                .description("Maximum number of pooled SMTP connections")
+                .register(meterRegistry);
+        Gauge.builder("smtp.pool.connections.open", openConnections, AtomicInteger::get)
+                .description("SMTP connections currently open")
+                .register(meterRegistry);
+        Gauge.builder("smtp.pool.connections.idle", idleTransports, Deque::size)
+                .description("Open SMTP connections waiting in the pool")
+                .register(meterRegistry);
+        Gauge.builder("smtp.pool.connections.active",
+                        () -> poolSize - permits.availablePermits() - priorityPermits.availablePermits())
+                .description("SMTP connections currently sending")
+                .register(meterRegistry);
+        Gauge.builder("smtp.pool.pending", () -> permits.getQueueLength() + priorityPermits.getQueueLength())
+                .description("Senders waiting for a pooled SMTP connection")
+                .register(meterRegistry);
+        for (SendPriority priority : SendPriority.values()) {
+            waits.put(priority, Timer.builder("smtp.pool.wait")
+                    .description("Time spent waiting for a pooled SMTP connection")
+                    .tag("priority", priority.tag())
+                    .publishPercentileHistogram()
+                    .minimumExpectedValue(Duration.ofMillis(1))
+                    .maximumExpectedValue(Duration.ofSeconds(30))
+                    .register(meterRegistry));
+        }
+        connectionsCreated = Counter.builder("smtp.pool.connections.created")
+                .description("SMTP connections opened by the pool")
+                .register(meterRegistry);
+    }
+
+    public void send(MimeMessage message, SendPriority priority, LongConsumer transmitted)
+            throws MessagingException {
+        send(message, null, priority, transmitted);
+    }
+
+    public Session getSession() {
+        return session;
+    }
+
+    /**
+     * Sends to the given envelope recipients instead of the message's own recipient headers.
+     * {@code transmitted} gets the nanoseconds the relay took to accept the message, not counting
+     * the wait for a connection or opening one.
+     */
+    public void send(MimeMessage message, Address[] envelopeRecipients, SendPriority priority,
+                     LongConsumer transmitted) throws MessagingException {
+        long waitStart = System.nanoTime();
+        Semaphore held;
+        try {
+            held = acquire(priority);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MessagingException("Interrupted while waiting for an SMTP connection", e);
+        }
+        waits.get(priority).record(System.nanoTime() - waitStart, TimeUnit.NANOSECONDS);
+
+        // The connection is given back by the I/O task, so one stuck past the timeout stays counted
+        AtomicBoolean abandoned = new AtomicBoolean();
+        Future<?> result;
+        try {
+            result = ioExecutor.submit(() -> {
+                try {
+                    transmit(message, envelopeRecipients, transmitted, abandoned);
+                    return null;
+                } finally {
+                    held.release();
+                }
+            });
+        } catch (RuntimeException e) {
+            held.release();
+            throw e;
+        }
+
+        try {
+            // Callers park on the future, which a virtual thread can do without pinning its carrier
+            result.get(sendTimeoutMs, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            abandoned.set(true);
+            throw new MessagingException("SMTP send timed out after " + sendTimeoutMs + " ms", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MessagingException("Interrupted while sending through the SMTP pool", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof MessagingException messagingException) {
+                throw messagingException;
+            }
+            if (e.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw new MessagingException("SMTP send failed", e);
+        }
+    }
+
+    // Transactional sends take a spare shared connection if there is one, else wait for a reserved
+    // one; bulk sends never use the reserved connections
+    private Semaphore acquire(SendPriority priority) throws InterruptedException {
+        if (priority == SendPriority.TRANSACTIONAL && reservedConnections > 0) {
+            if (permits.tryAcquire()) {
+                return permits;
+            }
+            priorityPermits.acquire();
+            return priorityPermits;
+        }
+        permits.acquire();
+        return permits;
+    }
+
+    private void transmit(MimeMessage message, Address[] envelopeRecipients, LongConsumer transmitted,
+                          AtomicBoolean abandoned) throws MessagingException {
+        PooledTransport pooled = borrow();
+        try {
+            // Same preparation JavaMailSenderImpl applies before handing a message to its transport
+            if (message.getSentDate() == null) {
+                message.setSentDate(new Date());
+            }
+            message.saveChanges();
+
+            Address[] addresses = envelopeRecipients != null ? envelopeRecipients : message.getAllRecipients();
+            long start = System.nanoTime();
+            try {
+                pooled.transport.sendMessage(message, addresses != null ? addresses : new Address[0]);
+            } finally {
+                // Also when some recipients were rejected, the relay still answered
+                transmitted.accept(System.nanoTime() - start);
+            }
+            pooled.messagesSent++;
+        } catch (SendFailedException e) {
+            // Address-level rejection: the connection itself is still usable
+            release(pooled, !pooled.transport.isConnected() ? "error" : abandoned.get() ? "timeout" : null);
+            throw e;
+        } catch (MessagingException | RuntimeException e) {
+            close(pooled, "error");
+            throw e;
+        }
+
+        if (abandoned.get()) {
+            close(pooled, "timeout");
+        } else {
+            release(pooled, pooled.messagesSent >= maxMessagesPerConnection ? "limit" : null);
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${app.smtp.pool.idle-timeout-ms:30000}")
+    public void evictIdleConnections() {
+        long now = System.currentTimeMillis();
+        for (PooledTransport pooled : idleTransports) {
+            if (now - pooled.lastUsedAt >= idleTimeoutMs && idleTransports.remove(pooled)) {
+                close(pooled, "idle");
+            }
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        ioExecutor.shutdown();
+        PooledTransport pooled;
+        while ((pooled = idleTransports.pollFirst()) != null) {
+            close(pooled, "shutdown");
+        }
+    }
+
+    private PooledTransport borrow() throws MessagingException {
+        long now = System.currentTimeMillis();
+        PooledTransport pooled;
+
+        // Most recently used first, so surplus connections age out through the idle timeout
+        while ((pooled = idleTransports.pollFirst()) != null) {
+            long idleFor = now - pooled.lastUsedAt;
+            if (idleFor >= idleTimeoutMs) {
+                close(pooled, "idle");
+            } else if (idleFor >= VALIDATE_AFTER_IDLE_MS && !pooled.transport.isConnected()) {
+                close(pooled, "stale");
+            } else {
+                return pooled;
+            }
+        }
+
+        return connect();
+    }
+
+    private PooledTransport connect() throws MessagingException {
+        String protocol = mailSender.getProtocol() != null ? mailSender.getProtocol() : "smtp";
+        Transport transport = session.getTransport(protocol);
+
+        String username = mailSender.getUsername();
+        String password = mailSender.getPassword();
+        transport.connect(mailSender.getHost(), mailSender.getPort(),
+                username != null && !username.isEmpty() ? username : null,
+                password != null && !password.isEmpty() ? password : null);
+
+        openConnections.incrementAndGet();
+        connectionsCreated.increment();
+        log.debug("Opened pooled SMTP connection to {}", mailSender.getHost());
+
+        return new PooledTransport(transport);
+    }
+
+    private Session createSession() {
+        String protocol = mailSender.getProtocol() != null ? mailSender.getProtocol() : "smtp";
+        Properties properties = new Properties();
+        properties.putAll(mailSender.getJavaMailProperties());
+        properties.setProperty("mail." + protocol + ".connectiontimeout", String.valueOf(connectionTimeoutMs));
+        properties.setProperty("mail." + protocol + ".timeout", String.valueOf(readTimeoutMs));
+        properties.setProperty("mail." + protocol + ".writetimeout", String.valueOf(writeTimeoutMs));
+        return Session.getInstance(properties);
+    }
+
+    private void release(PooledTransport pooled, String closeReason) {
+        if (closeReason != null) {
+            close(pooled, closeReason);
+            return;
+        }
+        pooled.lastUsedAt = System.currentTimeMillis();
+        idleTransports.offerFirst(pooled);
+    }
+
+    private void close(PooledTransport pooled, String reason) {
+        openConnections.decrementAndGet();
+        meterRegistry.counter("smtp.pool.connections.closed", "reason", reason).increment();
+
+        try {
+            pooled.transport.close();
+        } catch (MessagingException e) {
+            log.debug("Error closing SMTP connection: {}", e.getMessage());
+        }
+
+        log.debug("Closed pooled SMTP connection after {} messages ({})", pooled.messagesSent, reason);
+    }
+
+    private static class PooledTransport {
+
+        private final Transport transport;
+        private int messagesSent;
+        private long lastUsedAt = System.currentTimeMillis();
+
+        PooledTransport(Transport transport) {
+            this.transport = transport;
+        }
+    }
+}
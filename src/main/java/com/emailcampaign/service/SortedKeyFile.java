@@ -0,0 +1,187 @@
+package com.emailcampaign.service;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Immutable set of byte keys in a memory-mapped file, looked up by binary search. Keys are kept
+ * in unsigned lexicographic order. Layout: a fixed header, the concatenated keys, then one int
+ * offset per key plus a final end offset.
+ * <p>
+ * A mapping is limited to 2 GB, which is tens of millions of email addresses.
+ */
+final class SortedKeyFile {
+
+    private static final int MAGIC = 0x53555050;
+    private static final int VERSION = 1;
+    // magic, version, lastId, count, offsets position
+    private static final int HEADER_SIZE = 4 + 4 + 8 + 4 + 8;
+
+    static final SortedKeyFile EMPTY = new SortedKeyFile(
+            ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN), 0, 0, 0);
+
+    private final ByteBuffer buffer;
+    private final long lastId;
+    private final int count;
+    private final int offsetsPosition;
+
+    private SortedKeyFile(ByteBuffer buffer, long lastId, int count, int offsetsPosition) {
+        this.buffer = buffer;
+        this.lastId = lastId;
+        this.count = count;
+        this.offsetsPosition = offsetsPosition;
+    }
+
+    static SortedKeyFile open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+                throw new IOException("Not a suppression index file: " + path);
+            }
+            return new SortedKeyFile(buffer, buffer.getLong(8), buffer.getInt(16), (int) buffer.getLong(20));
+        }
+    }
+
+    /**
+     * Writes the keys, which must be sorted and distinct, to a temporary file that then atomically
+     * replaces {@code path}.
+     */
+    static void write(Path path, Iterator<byte[]> sortedKeys, long lastId) throws IOException {
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer out = ByteBuffer.allocate(64 * 1024).order(ByteOrder.LITTLE_ENDIAN);
+            int[] offsets = new int[1024];
+            int count = 0;
+            int position = 0;
+
+            channel.position(HEADER_SIZE);
+            while (sortedKeys.hasNext()) {
+                byte[] key = sortedKeys.next();
+                if (count + 1 >= offsets.length) {
+                    offsets = Arrays.copyOf(offsets, offsets.length * 2);
+                }
+                offsets[count++] = position;
+                position += key.length;
+                put(channel, out, key);
+            }
+            offsets[count] = position;
+
+            long offsetsPosition = HEADER_SIZE + (long) position;
+            for (int i = 0; i <= count; i++) {
+                ensure(channel, out, 4);
+                out.putInt(offsets[i]);
+            }
+            drain(channel, out);
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(MAGIC).putInt(VERSION).putLong(lastId).putInt(count).putLong(offsetsPosition).flip();
+            channel.write(header, 0);
+            channel.force(true);
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    long lastId() {
+        return lastId;
+    }
+
+    int count() {
+        return count;
+    }
+
+    boolean contains(byte[] key) {
+        int low = 0;
+        int high = count - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = compareAt(mid, key);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    Iterator<byte[]> keys() {
+        return new Iterator<>() {
+            private int next;
+
+            @Override
+            public boolean hasNext() {
+                return next < count;
+            }
+
+            @Override
+            public byte[] next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                int start = offset(next);
+                byte[] key = new byte[offset(next + 1) - start];
+                buffer.get(HEADER_SIZE + start, key);
+                next++;
+                return key;
+            }
+        };
+    }
+
+    private int offset(int index) {
+        return buffer.getInt(offsetsPosition + index * 4);
+    }
+
+    private int compareAt(int index, byte[] key) {
+        int start = HEADER_SIZE + offset(index);
+        int length = HEADER_SIZE + offset(index + 1) - start;
+        int common = Math.min(length, key.length);
+        for (int i = 0; i < common; i++) {
+            int cmp = Byte.compareUnsigned(buffer.get(start + i), key[i]);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return Integer.compare(length, key.length);
+    }
+
+    private static void put(FileChannel channel, ByteBuffer out, byte[] key) throws IOException {
+        if (key.length > out.capacity()) {
+            drain(channel, out);
+            ByteBuffer large = ByteBuffer.wrap(key);
+            while (large.hasRemaining()) {
+                channel.write(large);
+            }
+            return;
+        }
+        ensure(channel, out, key.length);
+        out.put(key);
+    }
+
+    private static void ensure(FileChannel channel, ByteBuffer out, int bytes) throws IOException {
+        if (out.remaining() < bytes) {
+            drain(channel, out);
+        }
+    }
+
+    private static void drain(FileChannel channel, ByteBuffer out) throws IOException {
+        out.flip();
+        while (out.hasRemaining()) {
+            channel.write(out);
+        }
+        out.clear();
+    }
+}
@@ -0,0 +1,245 @@
+package com.emailcampaign.service;
+
+import com.emailcampaign.model.Suppression;
+import com.emailcampaign.repository.SuppressionRepository;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Global suppression list: unsubscribed, bounced and complained addresses, across all recipient
+ * lists. The {@code suppressions} table is the source of truth; each instance keeps an index of it
+ * so that senders can check every recipient without touching the database.
+ * <p>
+ * The index is a Bloom filter in front of an exact sorted set in a memory-mapped file, plus the
+ * addresses added since the file was written. It catches up with the table by id every
+ * {@code app.suppression.refresh-interval-ms}, which also picks up suppressions recorded by other
+ * instances, and folds the recent additions into a new file once there are
+ * {@code app.suppression.compact-threshold} of them.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class SuppressionService {
+
+    private static final int REFRESH_PAGE_SIZE = 1000;
+    // Re-read the newest ids on every refresh, in case a lower id committed after a higher one
+    private static final long REFRESH_OVERLAP = 100;
+
+    private final SuppressionRepository suppressionRepository;
+
+    @Value("${app.suppression.index-file:data/suppression-index.bin}")
+    private String indexFileName;
+
+    @Value("${app.suppression.compact-threshold:10000}")
+    private int compactThreshold;
+
+    @Value("${app.suppression.false-positive-rate:0.01}")
+    private double falsePositiveRate;
+
+    private final Set<String> recentlyAdded = ConcurrentHashMap.newKeySet();
+    private final Object writeLock = new Object();
+    private volatile Index index;
+    private Path indexFile;
+    private long lastId;
+
+    @PostConstruct
+    public void load() throws IOException {
+        indexFile = Path.of(indexFileName);
+        SortedKeyFile file = SortedKeyFile.EMPTY;
+        if (Files.exists(indexFile)) {
+            try {
+                file = SortedKeyFile.open(indexFile);
+            } catch (IOException e) {
+                log.warn("Rebuilding unreadable suppression index {}: {}", indexFile, e.getMessage());
+            }
+        } else {
+            int carried = suppressionRepository.backfillFromRecipients();
+            log.info("Carried over {} suppressed recipients into the global suppression list", carried);
+        }
+
+        index = new Index(file, bloomFilter(file));
+        lastId = file.lastId();
+        refresh();
+        if (index.file == SortedKeyFile.EMPTY) {
+            // Also writes an empty file, so the backfill runs only once
+            compact();
+        }
+        log.info("Suppression index loaded: {} addresses", index.file.count() + recentlyAdded.size());
+    }
+
+    /**
+     * Exact answer from memory; only Bloom filter hits look any further.
+     */
+    public boolean isSuppressed(String email) {
+        String normalized = normalize(email);
+        byte[] key = normalized.getBytes(StandardCharsets.UTF_8);
+        Index current = index;
+        if (!current.bloom.mightContain(key)) {
+            return false;
+        }
+        return recentlyAdded.contains(normalized) || current.file.contains(key);
+    }
+
+    public void suppress(String email, Suppression.Reason reason) {
+        String normalized = normalize(email);
+        suppressionRepository.suppress(normalized, reason.name());
+        add(normalized);
+    }
+
+    /**
+     * Suppresses the recipients' addresses; the local index picks them up on its next refresh.
+     */
+    public int suppressRecipients(Collection<Long> recipientIds, Suppression.Reason reason) {
+        return suppressionRepository.suppressRecipients(recipientIds, reason.name());
+    }
+
+    @Scheduled(fixedDelayString = "${app.suppression.refresh-interval-ms:5000}")
+    public void refresh() {
+        long cursor = Math.max(0, lastId - REFRESH_OVERLAP);
+        List<Suppression> page;
+        do {
+            page = suppressionRepository.findByIdGreaterThanOrderById(cursor, PageRequest.of(0, REFRESH_PAGE_SIZE));
+            for (Suppression suppression : page) {
+                add(suppression.getEmail());
+                cursor = suppression.getId();
+            }
+        } while (page.size() == REFRESH_PAGE_SIZE);
+        lastId = Math.max(lastId, cursor);
+
+        if (recentlyAdded.size() >= compactThreshold) {
+            try {
+                compact();
+            } catch (IOException e) {
+                log.error("Failed to compact suppression index {}", indexFile, e);
+            }
+        }
+    }
+
+    private void add(String normalized) {
+        if (isSuppressed(normalized)) {
+            return;
+        }
+        synchronized (writeLock) {
+            recentlyAdded.add(normalized);
+            index.bloom.put(normalized.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * Merges the recent additions into a new index file and swaps it in.
+     */
+    private void compact() throws IOException {
+        long start = System.nanoTime();
+        Index current = index;
+        byte[][] added = recentlyAdded.stream()
+                .map(email -> email.getBytes(StandardCharsets.UTF_8))
+                .sorted(Arrays::compareUnsigned)
+                .toArray(byte[][]::new);
+
+        Path parent = indexFile.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        SortedKeyFile.write(indexFile, new MergingIterator(current.file.keys(), added), lastId);
+        SortedKeyFile file = SortedKeyFile.open(indexFile);
+        BloomFilter bloom = bloomFilter(file);
+
+        synchronized (writeLock) {
+            // Anything added while the file was written stays in the recent set, so goes in the new filter too
+            for (String email : recentlyAdded) {
+                bloom.put(email.getBytes(StandardCharsets.UTF_8));
+            }
+            index = new Index(file, bloom);
+            for (byte[] key : added) {
+                recentlyAdded.remove(new String(key, StandardCharsets.UTF_8));
+            }
+        }
+
+        log.info("Compacted suppression index: {} addresses in {} ms", file.count(),
+                (System.nanoTime() - start) / 1_000_000);
+    }
+
+    private BloomFilter bloomFilter(SortedKeyFile file) {
+        // Room for the additions until the next compaction, so the false positive rate holds
+        BloomFilter bloom = new BloomFilter((long) file.count() + compactThreshold * 2L, falsePositiveRate);
+        for (Iterator<byte[]> keys = file.keys(); keys.hasNext(); ) {
+            bloom.put(keys.next());
+        }
+        return bloom;
+    }
+
+    private static String normalize(String email) {
+        return email.trim().toLowerCase(Locale.ROOT);
+    }
+
+    private record Index(SortedKeyFile file, BloomFilter bloom) {
+    }
+
+    /**
+     * Merges two sorted key sequences, dropping duplicates.
+     */
+    private static class MergingIterator implements Iterator<byte[]> {
+
+        private final Iterator<byte[]> existing;
+        private final byte[][] added;
+        private byte[] nextExisting;
+        private int nextAdded;
+
+        MergingIterator(Iterator<byte[]> existing, byte[][] added) {
+            this.existing = existing;
+            this.added = added;
+            this.nextExisting = existing.hasNext() ? existing.next() : null;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return nextExisting != null || nextAdded < added.length;
+        }
+
+        @Override
+        public byte[] next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            int cmp = nextExisting == null ? 1
+                    : nextAdded == added.length ? -1
+                    : Arrays.compareUnsigned(nextExisting, added[nextAdded]);
+            if (cmp < 0) {
+                return advanceExisting();
+            }
+            byte[] key = added[nextAdded++];
+            if (cmp == 0) {
+                advanceExisting();
+            }
+            // Skip duplicates within the additions
+            while (nextAdded < added.length && Arrays.equals(added[nextAdded], key)) {
+                nextAdded++;
+            }
+            return key;
+        }
+
+        private byte[] advanceExisting() {
+            byte[] key = nextExisting;
+            nextExisting = existing.hasNext() ? existing.next() : null;
+            return key;
+        }
+    }
+}
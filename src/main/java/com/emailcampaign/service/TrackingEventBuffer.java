@@ -0,0 +1,237 @@
+package com.emailcampaign.service;
+
+import com.emailcampaign.model.Campaign;
+import com.emailcampaign.model.EmailTracking;
+import com.emailcampaign.model.Recipient;
+import com.emailcampaign.repository.CampaignRepository;
+import com.emailcampaign.repository.EmailTrackingRepository;
+import com.emailcampaign.repository.RecipientRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Open and click events on their way to {@code email_tracking}. A tracking request only puts its
+ * event in a bounded ring buffer and returns; a writer thread drains the buffer in batches of
+ * {@code app.tracking.events.batch-size}. Events from signed tokens reference their campaign and
+ * recipient without reading anything. Opens of older pixels are resolved through their SENT
+ * event, and clicks with unsigned legacy tokens are checked to exist, one query per batch each.
+ * <p>
+ * When the buffer is full the event is dropped and counted in {@code tracking.events.dropped},
+ * rather than holding up the request. {@code tracking.events.buffered} is the number of events
+ * waiting and {@code tracking.events.lag} the time from request to write. On shutdown the writer
+ * finishes whatever is buffered, for up to {@code app.tracking.events.shutdown-timeout-ms}.
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class TrackingEventBuffer {
+
+    private static final long POLL_INTERVAL_MS = 200;
+
+    private final EmailTrackingRepository emailTrackingRepository;
+    private final CampaignRepository campaignRepository;
+    private final RecipientRepository recipientRepository;
+    private final EmailTrackingWriter emailTrackingWriter;
+    private final UserAgentClassifier userAgentClassifier;
+    private final MeterRegistry meterRegistry;
+
+    @Value("${app.tracking.events.capacity:100000}")
+    private int capacity;
+
+    @Value("${app.tracking.events.batch-size:500}")
+    private int batchSize;
+
+    @Value("${app.tracking.events.shutdown-timeout-ms:20000}")
+    private long shutdownTimeoutMs;
+
+    private BlockingQueue<TrackingEvent> buffer;
+    private Counter dropped;
+    private Timer lag;
+    private Thread writer;
+    private volatile boolean running = true;
+
+    @PostConstruct
+    public void init() {
+        buffer = new ArrayBlockingQueue<>(capacity);
+
+        Gauge.builder("tracking.events.buffered", buffer, BlockingQueue::size)
+                .description("Open and click events waiting to be written")
+                .register(meterRegistry);
+        dropped = Counter.builder("tracking.events.dropped")
+                .description("Open and click events dropped because the buffer was full")
+                .register(meterRegistry);
+        lag = Timer.builder("tracking.events.lag")
+                .description("Time from a tracking request to its event being written")
+                .publishPercentiles(0.5, 0.99)
+                .register(meterRegistry);
+
+        writer = new Thread(this::drain, "tracking-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    public void recordOpen(long campaignId, long recipientId, TrackingService.ClientInfo client) {
+        offer(new TrackingEvent(EmailTracking.EventType.OPENED, null, campaignId, recipientId, true, null, null,
+                client, LocalDateTime.now(), System.nanoTime()));
+    }
+
+    /**
+     * Records the open of a pixel that carries the tracking id of the SENT event.
+     */
+    public void recordOpen(String trackingId, TrackingService.ClientInfo client) {
+        offer(new TrackingEvent(EmailTracking.EventType.OPENED, trackingId, null, null, false, null, null,
+                client, LocalDateTime.now(), System.nanoTime()));
+    }
+
+    /**
+     * Records a click from a signed token, by the link's index in {@code campaign_links}.
+     */
+    public void recordClick(long campaignId, long recipientId, int linkIndex, TrackingService.ClientInfo client) {
+        offer(new TrackingEvent(EmailTracking.EventType.CLICKED, null, campaignId, recipientId, true, linkIndex, null,
+                client, LocalDateTime.now(), System.nanoTime()));
+    }
+
+    /**
+     * Records a click from an unsigned legacy token, which carries the URL itself.
+     */
+    public void recordClick(long campaignId, long recipientId, String linkUrl, TrackingService.ClientInfo client) {
+        offer(new TrackingEvent(EmailTracking.EventType.CLICKED, null, campaignId, recipientId, false, null, linkUrl,
+                client, LocalDateTime.now(), System.nanoTime()));
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        running = false;
+        writer.join(shutdownTimeoutMs);
+        if (writer.isAlive()) {
+            log.warn("Tracking writer still busy after {} ms, {} events not written", shutdownTimeoutMs, buffer.size());
+        }
+    }
+
+    private void offer(TrackingEvent event) {
+        if (!buffer.offer(event)) {
+            dropped.increment();
+            log.debug("Tracking buffer full, dropped {} event", event.type());
+        }
+    }
+
+    private void drain() {
+        List<TrackingEvent> batch = new ArrayList<>(batchSize);
+        while (running || !buffer.isEmpty()) {
+            try {
+                TrackingEvent first = buffer.poll(POLL_INTERVAL_MS, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                buffer.drainTo(batch, batchSize - 1);
+                write(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (RuntimeException e) {
+                log.error("Failed to write {} tracking events: {}", batch.size(), e.getMessage());
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void write(List<TrackingEvent> batch) {
+        Set<String> trackingIds = new HashSet<>();
+        Set<Long> campaignIds = new HashSet<>();
+        Set<Long> recipientIds = new HashSet<>();
+        for (TrackingEvent event : batch) {
+            if (event.trackingId() != null) {
+                trackingIds.add(event.trackingId());
+            } else if (!event.signed()) {
+                campaignIds.add(event.campaignId());
+                recipientIds.add(event.recipientId());
+            }
+        }
+
+        Map<String, EmailTracking> sent = new HashMap<>();
+        if (!trackingIds.isEmpty()) {
+            emailTrackingRepository.findByTrackingIdIn(trackingIds).forEach(t -> sent.put(t.getTrackingId(), t));
+        }
+        Map<Long, Campaign> campaigns = new HashMap<>();
+        Map<Long, Recipient> recipients = new HashMap<>();
+        if (!campaignIds.isEmpty()) {
+            campaignRepository.findAllById(campaignIds).forEach(c -> campaigns.put(c.getId(), c));
+            recipientRepository.findAllById(recipientIds).forEach(r -> recipients.put(r.getId(), r));
+        }
+
+        List<EmailTracking> rows = new ArrayList<>(batch.size());
+        for (TrackingEvent event : batch) {
+            Campaign campaign;
+            Recipient recipient;
+            if (event.trackingId() != null) {
+                EmailTracking sentEmail = sent.get(event.trackingId());
+                campaign = sentEmail != null ? sentEmail.getCampaign() : null;
+                recipient = sentEmail != null ? sentEmail.getRecipient() : null;
+            } else if (event.signed()) {
+                campaign = campaignRepository.getReferenceById(event.campaignId());
+                recipient = recipientRepository.getReferenceById(event.recipientId());
+            } else {
+                campaign = campaigns.get(event.campaignId());
+                recipient = recipients.get(event.recipientId());
+            }
+            // Unknown tracking ids and tokens are ignored, as they always were
+            if (campaign != null && recipient != null) {
+                rows.add(toRow(event, campaign, recipient));
+            }
+        }
+        emailTrackingWriter.writeAll(rows);
+
+        long now = System.nanoTime();
+        for (TrackingEvent event : batch) {
+            lag.record(now - event.receivedAt(), TimeUnit.NANOSECONDS);
+        }
+        log.debug("Wrote {} of {} tracking events", rows.size(), batch.size());
+    }
+
+    private EmailTracking toRow(TrackingEvent event, Campaign campaign, Recipient recipient) {
+        String userAgent = event.client().userAgent();
+        UserAgentClassifier.Classification classification = userAgentClassifier.classify(userAgent);
+
+        EmailTracking tracking = new EmailTracking();
+        tracking.setTrackingId(UUID.randomUUID().toString());
+        tracking.setEventType(event.type());
+        tracking.setCampaign(campaign);
+        tracking.setRecipient(recipient);
+        tracking.setLinkIndex(event.linkIndex());
+        tracking.setLinkUrl(event.linkUrl());
+        tracking.setIpAddress(event.client().ipAddress());
+        tracking.setUserAgent(userAgent);
+        tracking.setDeviceType(classification.deviceType());
+        tracking.setEmailClient(classification.emailClient());
+        tracking.setEventTime(event.time());
+        return tracking;
+    }
+
+    // Either the ids decoded from a token, or the tracking id of the SENT event of an older pixel
+    private record TrackingEvent(EmailTracking.EventType type, String trackingId, Long campaignId, Long recipientId,
+                                 boolean signed, Integer linkIndex, String linkUrl, TrackingService.ClientInfo client,
+                                 LocalDateTime time, long receivedAt) {
+    }
+}
@@ -3,21 +3,22 @@ package com.emailcampaign.service;
 import com.emailcampaign.model.Campaign;
 import com.emailcampaign.model.EmailTracking;
 import com.emailcampaign.model.Recipient;
+import com.emailcampaign.model.SendOutboxEntry;
+import com.emailcampaign.model.Suppression;
 import com.emailcampaign.repository.CampaignRepository;
 import com.emailcampaign.repository.EmailTrackingRepository;
 import com.emailcampaign.repository.RecipientRepository;
+import com.emailcampaign.repository.SendOutboxRepository;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
 
 import jakarta.servlet.http.HttpServletRequest;
 import java.time.LocalDateTime;
-import java.util.Base64;
 import java.util.Optional;
 import java.util.UUID;
-import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 @Service
@@ -26,149 +27,119 @@ import java.util.regex.Pattern;
 @Transactional
 public class TrackingService {
     
+    private static final Pattern LEGACY_TRACKING_ID =
+            Pattern.compile("[0-9a-f]{8}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{12}");
+    
     private final EmailTrackingRepository emailTrackingRepository;
     private final CampaignRepository campaignRepository;
     private final RecipientRepository recipientRepository;
+    private final SendOutboxRepository sendOutboxRepository;
+    private final SuppressionService suppressionService;
+    private final TrackingEventBuffer trackingEventBuffer;
+    private final TrackingTokenCodec tokenCodec;
+    private final CampaignLinkService campaignLinkService;
     
-    @Value("${app.base-url:http://localhost:8080}")
-    private String baseUrl;
-    
-    public void trackEmailOpen(String trackingId, HttpServletRequest request) {
-        Optional<EmailTracking> existingTracking = emailTrackingRepository.findByTrackingId(trackingId);
-        
-        if (existingTracking.isPresent()) {
-            EmailTracking tracking = existingTracking.get();
-            
-            EmailTracking openTracking = new EmailTracking();
-            openTracking.setTrackingId(UUID.randomUUID().toString());
-            openTracking.setEventType(EmailTracking.EventType.OPENED);
-            openTracking.setCampaign(tracking.getCampaign());
-            openTracking.setRecipient(tracking.getRecipient());
-            openTracking.setIpAddress(getClientIpAddress(request));
-            openTracking.setUserAgent(request.getHeader("User-Agent"));
-            openTracking.setDeviceType(detectDeviceType(request.getHeader("User-Agent")));
-            openTracking.setEmailClient(detectEmailClient(request.getHeader("User-Agent")));
-            openTracking.setEventTime(LocalDateTime.now());
-            
-            emailTrackingRepository.save(openTracking);
-            
-            log.debug("Email open tracked for campaign: {} recipient: {}", 
-                    tracking.getCampaign().getName(), tracking.getRecipient().getEmail());
+    /**
+     * Queues the open for {@link TrackingEventBuffer}, so the pixel is served without waiting for the database.
+     * The pixel's signed open token names campaign and recipient, so recording the open reads nothing;
+     * pixels in mail sent before carry the tracking id of the SENT event, which is looked up instead.
+     */
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    public void trackEmailOpen(String pixelId, ClientInfo client) {
+        if (LEGACY_TRACKING_ID.matcher(pixelId).matches()) {
+            trackingEventBuffer.recordOpen(pixelId, client);
+            return;
+        }
+        try {
+            TrackingTokenCodec.Token token = tokenCodec.decode(pixelId, TrackingTokenCodec.Type.OPEN);
+            trackingEventBuffer.recordOpen(token.campaignId(), token.recipientId(), client);
+        } catch (IllegalArgumentException e) {
+            log.warn("Invalid open tracking token: {}", e.getMessage());
         }
     }
     
-    public void trackLinkClick(String trackingToken, HttpServletRequest request) {
+    /**
+     * Queues the click and resolves where it redirects to. The token carries the campaign and
+     * recipient ids and the link's index, so the event is recorded by index and only the redirect
+     * needs the URL, which {@link CampaignLinkService} normally has cached.
+     *
+     * @return the link's URL, or empty if the token is invalid or the link unknown
+     */
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    public Optional<String> trackLinkClick(String trackingToken, ClientInfo client) {
         try {
-            String decodedToken = new String(Base64.getDecoder().decode(trackingToken));
-            String[] parts = decodedToken.split(":");
-            
-            if (parts.length >= 4) {
-                Long campaignId = Long.parseLong(parts[0]);
-                Long recipientId = Long.parseLong(parts[1]);
-                String originalUrl = parts[2];
-                
-                Optional<Campaign> campaign = campaignRepository.findById(campaignId);
-                Optional<Recipient> recipient = recipientRepository.findById(recipientId);
-                
-                if (campaign.isPresent() && recipient.isPresent()) {
-                    EmailTracking clickTracking = new EmailTracking();
-                    clickTracking.setTrackingId(UUID.randomUUID().toString());
-                    clickTracking.setEventType(EmailTracking.EventType.CLICKED);
-                    clickTracking.setCampaign(campaign.get());
-                    clickTracking.setRecipient(recipient.get());
-                    clickTracking.setLinkUrl(originalUrl);
-                    clickTracking.setIpAddress(getClientIpAddress(request));
-                    clickTracking.setUserAgent(request.getHeader("User-Agent"));
-                    clickTracking.setDeviceType(detectDeviceType(request.getHeader("User-Agent")));
-                    clickTracking.setEmailClient(detectEmailClient(request.getHeader("User-Agent")));
-                    clickTracking.setEventTime(LocalDateTime.now());
-                    
-                    emailTrackingRepository.save(clickTracking);
-                    
-                    log.debug("Link click tracked for campaign: {} recipient: {} url: {}", 
-                            campaign.get().getName(), recipient.get().getEmail(), originalUrl);
+            TrackingTokenCodec.Token token = tokenCodec.decode(trackingToken, TrackingTokenCodec.Type.CLICK);
+            if (!token.signed()) {
+                // Anyone can forge a legacy token, so never redirect to a URL the campaign does not link to
+                if (!campaignLinkService.isTrackedLink(token.campaignId(), token.legacyUrl())) {
+                    log.warn("Legacy click token for campaign {} names a URL the campaign does not link to",
+                            token.campaignId());
+                    return Optional.empty();
                 }
+                trackingEventBuffer.recordClick(token.campaignId(), token.recipientId(), token.legacyUrl(), client);
+                return Optional.of(token.legacyUrl());
             }
-        } catch (Exception e) {
-            log.error("Error tracking link click: {}", e.getMessage());
+            
+            Optional<String> originalUrl = campaignLinkService.resolve(token.campaignId(), token.linkIndex());
+            if (originalUrl.isPresent()) {
+                trackingEventBuffer.recordClick(token.campaignId(), token.recipientId(), token.linkIndex(), client);
+            }
+            return originalUrl;
+        } catch (IllegalArgumentException e) {
+            log.warn("Invalid click tracking token: {}", e.getMessage());
+            return Optional.empty();
         }
     }
     
     public void trackUnsubscribe(String unsubscribeToken, HttpServletRequest request) {
         try {
-            String decodedToken = new String(Base64.getDecoder().decode(unsubscribeToken));
-            String[] parts = decodedToken.split(":");
+            TrackingTokenCodec.Token token = tokenCodec.decode(unsubscribeToken, TrackingTokenCodec.Type.UNSUBSCRIBE);
+            // Anyone can forge a legacy token, so only honor one for mail the campaign sent that recipient
+            if (!token.signed() && !sendOutboxRepository.existsByCampaignIdAndRecipientIdAndState(
+                    token.campaignId(), token.recipientId(), SendOutboxEntry.OutboxState.SENT)) {
+                log.warn("Legacy unsubscribe token for campaign {} names a recipient it was not sent to",
+                        token.campaignId());
+                return;
+            }
+            
+            Optional<Campaign> campaign = campaignRepository.findById(token.campaignId());
+            Optional<Recipient> recipient = recipientRepository.findById(token.recipientId());
             
-            if (parts.length >= 3) {
-                Long campaignId = Long.parseLong(parts[0]);
-                Long recipientId = Long.parseLong(parts[1]);
+            if (campaign.isPresent() && recipient.isPresent()) {
+                // Update recipient status
+                Recipient r = recipient.get();
+                r.setStatus(Recipient.RecipientStatus.UNSUBSCRIBED);
+                r.setUnsubscribedAt(LocalDateTime.now());
+                recipientRepository.save(r);
                 
-                Optional<Campaign> campaign = campaignRepository.findById(campaignId);
-                Optional<Recipient> recipient = recipientRepository.findById(recipientId);
+                // Applies to every list the address is on
+                suppressionService.suppress(r.getEmail(), Suppression.Reason.UNSUBSCRIBED);
                 
-                if (campaign.isPresent() && recipient.isPresent()) {
-                    // Update recipient status
-                    Recipient r = recipient.get();
-                    r.setStatus(Recipient.RecipientStatus.UNSUBSCRIBED);
-                    r.setUnsubscribedAt(LocalDateTime.now());
-                    recipientRepository.save(r);
-                    
-                    // Log unsubscribe event
-                    EmailTracking unsubscribeTracking = new EmailTracking();
-                    unsubscribeTracking.setTrackingId(UUID.randomUUID().toString());
-                    unsubscribeTracking.setEventType(EmailTracking.EventType.UNSUBSCRIBED);
-                    unsubscribeTracking.setCampaign(campaign.get());
-                    unsubscribeTracking.setRecipient(r);
-                    unsubscribeTracking.setIpAddress(getClientIpAddress(request));
-                    unsubscribeTracking.setUserAgent(request.getHeader("User-Agent"));
-                    unsubscribeTracking.setEventTime(LocalDateTime.now());
-                    
-                    emailTrackingRepository.save(unsubscribeTracking);
-                    
-                    log.info("Unsubscribe tracked for campaign: {} recipient: {}", 
-                            campaign.get().getName(), r.getEmail());
-                }
+                // Log unsubscribe event
+                EmailTracking unsubscribeTracking = new EmailTracking();
+                unsubscribeTracking.setTrackingId(UUID.randomUUID().toString());
+                unsubscribeTracking.setEventType(EmailTracking.EventType.UNSUBSCRIBED);
+                unsubscribeTracking.setCampaign(campaign.get());
+                unsubscribeTracking.setRecipient(r);
+                unsubscribeTracking.setIpAddress(getClientIpAddress(request));
+                unsubscribeTracking.setUserAgent(request.getHeader("User-Agent"));
+                unsubscribeTracking.setEventTime(LocalDateTime.now());
+                
+                emailTrackingRepository.save(unsubscribeTracking);
+                
+                log.info("Unsubscribe tracked for campaign: {} recipient: {}", 
+                        campaign.get().getName(), r.getEmail());
             }
         } catch (Exception e) {
             log.error("Error tracking unsubscribe: {}", e.getMessage());
         }
     }
     
-    public String processLinksForTracking(String content, Campaign campaign, Recipient recipient) {
-        Pattern linkPattern = Pattern.compile("<a\\s+href=\"([^\"]+)\"([^>]*)>", Pattern.CASE_INSENSITIVE);
-        Matcher matcher = linkPattern.matcher(content);
-        
-        StringBuffer result = new StringBuffer();
-        
-        while (matcher.find()) {
-            String originalUrl = matcher.group(1);
-            String otherAttributes = matcher.group(2);
-            
-            // Skip tracking pixel and unsubscribe links
-            if (!originalUrl.contains("/api/tracking/")) {
-                String trackingToken = generateClickTrackingToken(campaign, recipient, originalUrl);
-                String trackedUrl = baseUrl + "/api/tracking/click/" + trackingToken;
-                
-                String replacement = "<a href=\"" + trackedUrl + "\"" + otherAttributes + ">";
-                matcher.appendReplacement(result, replacement);
-            }
-        }
-        
-        matcher.appendTail(result);
-        return result.toString();
-    }
-    
-    public String generateClickTrackingToken(Campaign campaign, Recipient recipient, String originalUrl) {
-        String tokenData = campaign.getId() + ":" + recipient.getId() + ":" + originalUrl + ":" + System.currentTimeMillis();
-        return Base64.getEncoder().encodeToString(tokenData.getBytes());
-    }
-    
     public String generateUnsubscribeToken(Recipient recipient, Campaign campaign) {
-        String tokenData = campaign.getId() + ":" + recipient.getId() + ":" + System.currentTimeMillis();
-        return Base64.getEncoder().encodeToString(tokenData.getBytes());
+        return tokenCodec.encodeUnsubscribe(campaign.getId(), recipient.getId());
     }
     
-    private String getClientIpAddress(HttpServletRequest request) {
+    private static String getClientIpAddress(HttpServletRequest request) {
         String xForwardedFor = request.getHeader("X-Forwarded-For");
         if (xForwardedFor != null && !xForwardedFor.isEmpty()) {
             return xForwardedFor.split(",")[0].trim();
@@ -182,31 +153,13 @@ public class TrackingService {
         return request.getRemoteAddr();
     }
     
-    private String detectDeviceType(String userAgent) {
-        if (userAgent == null) return "Unknown";
+    /**
+     * What tracking needs from the request, captured before the request is recycled.
+     */
+    public record ClientInfo(String ipAddress, String userAgent) {
         
-        userAgent = userAgent.toLowerCase();
-        
-        if (userAgent.contains("mobile") || userAgent.contains("android") || userAgent.contains("iphone")) {
-            return "Mobile";
-        } else if (userAgent.contains("tablet") || userAgent.contains("ipad")) {
-            return "Tablet";
-        } else {
-            return "Desktop";
+        public static ClientInfo of(HttpServletRequest request) {
+            return new ClientInfo(getClientIpAddress(request), request.getHeader("User-Agent"));
         }
     }
-    
-    private String detectEmailClient(String userAgent) {
-        if (userAgent == null) return "Unknown";
-        
-        userAgent = userAgent.toLowerCase();
-        
-        if (userAgent.contains("outlook")) return "Outlook";
-        if (userAgent.contains("thunderbird")) return "Thunderbird";
-        if (userAgent.contains("apple mail")) return "Apple Mail";
-        if (userAgent.contains("gmail")) return "Gmail";
-        if (userAgent.contains("yahoo")) return "Yahoo Mail";
-        
-        return "Unknown";
-    }
 }
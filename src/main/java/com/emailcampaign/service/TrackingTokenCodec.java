@@ -0,0 +1,314 @@
+package com.emailcampaign.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Compact signed tokens for tracking URLs (click, unsubscribe and open pixel), URL-safe Base64
+ * without padding over:
+ * <pre>
+ *   header       1 byte   format version (high 4 bits) and token type (low 4 bits)
+ *   campaignId   varint
+ *   recipientId  varint
+ *   linkIndex    varint   click tokens only
+ *   mac          8 bytes  HMAC-SHA256 of the bytes above, truncated
+ * </pre>
+ * A click token for typical ids is about 20 characters. Decoding gives the ids without any
+ * database access, and the MAC means they were issued by us. Encoding and decoding borrow
+ * buffers and a keyed Mac from a small pool rather than per thread, since messages are rendered
+ * on a fresh virtual thread each; the only allocations are the resulting string or token.
+ * <p>
+ * Click and unsubscribe tokens in mail sent before this format, Base64 of
+ * {@code campaignId:recipientId:...}, are accepted unsigned while
+ * {@code app.tracking.accept-legacy-tokens} is on. Being unsigned, a legacy click only redirects
+ * to one of the campaign's links and a legacy unsubscribe only counts if the campaign was sent to
+ * that recipient; see {@link TrackingService}. Pixels used to carry the random tracking id
+ * of the SENT event instead, which {@link TrackingService#trackEmailOpen} resolves itself.
+ */
+@Component
+public class TrackingTokenCodec {
+
+    private static final int VERSION = 1;
+    private static final int MAC_LENGTH = 8;
+    // Header, two 64-bit varints, a 32-bit varint and the MAC
+    private static final int MAX_LENGTH = 1 + 10 + 10 + 5 + MAC_LENGTH;
+    private static final String MAC_ALGORITHM = "HmacSHA256";
+    private static final int POOL_SIZE = Runtime.getRuntime().availableProcessors() * 2;
+
+    private static final char[] ALPHABET =
+            "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_".toCharArray();
+    private static final byte[] DECODE = new byte[128];
+
+    static {
+        Arrays.fill(DECODE, (byte) -1);
+        for (int i = 0; i < ALPHABET.length; i++) {
+            DECODE[ALPHABET[i]] = (byte) i;
+        }
+    }
+
+    public enum Type {
+        CLICK(1), UNSUBSCRIBE(2), OPEN(3);
+
+        private final int code;
+
+        Type(int code) {
+            this.code = code;
+        }
+    }
+
+    /**
+     * A decoded token. Legacy tokens are unsigned; a legacy click token carries its URL instead of
+     * a link index.
+     */
+    public record Token(Type type, long campaignId, long recipientId, int linkIndex, String legacyUrl,
+                        boolean signed) {
+    }
+
+    private final SecretKeySpec key;
+    private final Mac prototype;
+    private final boolean acceptLegacy;
+    private final BlockingQueue<Buffers> pool = new ArrayBlockingQueue<>(POOL_SIZE);
+
+    public TrackingTokenCodec(@Value("${app.tracking.token-secret}") String secret,
+                              @Value("${app.tracking.accept-legacy-tokens:true}") boolean acceptLegacy) {
+        if (secret == null || secret.isEmpty()) {
+            throw new IllegalArgumentException("app.tracking.token-secret must be set");
+        }
+        this.key = new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8), MAC_ALGORITHM);
+        this.prototype = newMac();
+        this.acceptLegacy = acceptLegacy;
+    }
+
+    public String encodeClick(long campaignId, long recipientId, int linkIndex) {
+        return encode(Type.CLICK, campaignId, recipientId, linkIndex);
+    }
+
+    public String encodeUnsubscribe(long campaignId, long recipientId) {
+        return encode(Type.UNSUBSCRIBE, campaignId, recipientId, 0);
+    }
+
+    public String encodeOpen(long campaignId, long recipientId) {
+        return encode(Type.OPEN, campaignId, recipientId, 0);
+    }
+
+    /**
+     * @throws IllegalArgumentException if the token is malformed, forged or of another type
+     */
+    public Token decode(String token, Type expected) {
+        Buffers b = borrow();
+        try {
+            int length = decodeBase64(token, b.data);
+            if (length > MAC_LENGTH && (b.data[0] & 0xff) >>> 4 == VERSION) {
+                return parse(b, length, expected);
+            }
+        } finally {
+            pool.offer(b);
+        }
+        // Legacy tokens are digits and colons, so their first byte never carries a version
+        if (acceptLegacy && expected != Type.OPEN) {
+            return decodeLegacy(token, expected);
+        }
+        throw new IllegalArgumentException("Invalid tracking token");
+    }
+
+    private String encode(Type type, long campaignId, long recipientId, int linkIndex) {
+        if (campaignId < 0 || recipientId < 0 || linkIndex < 0) {
+            throw new IllegalArgumentException("Token ids must not be negative");
+        }
+        Buffers b = borrow();
+        try {
+            byte[] data = b.data;
+            int length = 0;
+            data[length++] = (byte) (VERSION << 4 | type.code);
+            length = writeVarint(data, length, campaignId);
+            length = writeVarint(data, length, recipientId);
+            if (type == Type.CLICK) {
+                length = writeVarint(data, length, linkIndex);
+            }
+            b.sign(length);
+            System.arraycopy(b.digest, 0, data, length, MAC_LENGTH);
+            return encodeBase64(data, length + MAC_LENGTH, b.chars);
+        } finally {
+            pool.offer(b);
+        }
+    }
+
+    // Returned with pool.offer; when the pool is full the extra buffers are simply dropped
+    private Buffers borrow() {
+        Buffers b = pool.poll();
+        return b != null ? b : new Buffers(cloneMac());
+    }
+
+    private Mac newMac() {
+        try {
+            Mac mac = Mac.getInstance(MAC_ALGORITHM);
+            mac.init(key);
+            return mac;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Cannot initialize " + MAC_ALGORITHM, e);
+        }
+    }
+
+    // Cloning skips the provider lookup and key setup
+    private Mac cloneMac() {
+        try {
+            return (Mac) prototype.clone();
+        } catch (CloneNotSupportedException e) {
+            return newMac();
+        }
+    }
+
+    private Token parse(Buffers b, int length, Type expected) {
+        byte[] data = b.data;
+        int signedLength = length - MAC_LENGTH;
+        b.sign(signedLength);
+        int difference = 0;
+        for (int i = 0; i < MAC_LENGTH; i++) {
+            difference |= data[signedLength + i] ^ b.digest[i];
+        }
+        if (difference != 0) {
+            throw new IllegalArgumentException("Invalid tracking token signature");
+        }
+        if ((data[0] & 0x0f) != expected.code) {
+            throw new IllegalArgumentException("Tracking token is not a " + expected + " token");
+        }
+
+        b.position = 1;
+        long campaignId = readVarint(b, signedLength);
+        long recipientId = readVarint(b, signedLength);
+        long linkIndex = expected == Type.CLICK ? readVarint(b, signedLength) : 0;
+        if (b.position != signedLength || linkIndex > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Malformed tracking token");
+        }
+        return new Token(expected, campaignId, recipientId, (int) linkIndex, null, true);
+    }
+
+    // campaignId:recipientId:timestamp, or campaignId:recipientId:url:timestamp for clicks
+    private static Token decodeLegacy(String token, Type expected) {
+        String decoded = new String(Base64.getDecoder().decode(token), StandardCharsets.UTF_8);
+        int first = decoded.indexOf(':');
+        int second = decoded.indexOf(':', first + 1);
+        int last = decoded.lastIndexOf(':');
+        if (first < 0 || second < 0) {
+            throw new IllegalArgumentException("Malformed tracking token");
+        }
+        long campaignId = Long.parseLong(decoded.substring(0, first));
+        long recipientId = Long.parseLong(decoded.substring(first + 1, second));
+
+        String url = null;
+        if (expected == Type.CLICK) {
+            // The URL may contain colons itself, the timestamp never does
+            if (last <= second) {
+                throw new IllegalArgumentException("Malformed tracking token");
+            }
+            url = decoded.substring(second + 1, last);
+        }
+        return new Token(expected, campaignId, recipientId, 0, url, false);
+    }
+
+    private static int writeVarint(byte[] data, int position, long value) {
+        while ((value & ~0x7fL) != 0) {
+            data[position++] = (byte) (value & 0x7f | 0x80);
+            value >>>= 7;
+        }
+        data[position++] = (byte) value;
+        return position;
+    }
+
+    private static long readVarint(Buffers b, int limit) {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            if (b.position >= limit) {
+                throw new IllegalArgumentException("Malformed tracking token");
+            }
+            byte next = b.data[b.position++];
+            value |= (long) (next & 0x7f) << shift;
+            if (next >= 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Malformed tracking token");
+    }
+
+    private static String encodeBase64(byte[] data, int length, char[] chars) {
+        int c = 0;
+        int i = 0;
+        for (; i + 2 < length; i += 3) {
+            int bits = (data[i] & 0xff) << 16 | (data[i + 1] & 0xff) << 8 | data[i + 2] & 0xff;
+            chars[c++] = ALPHABET[bits >>> 18];
+            chars[c++] = ALPHABET[bits >>> 12 & 0x3f];
+            chars[c++] = ALPHABET[bits >>> 6 & 0x3f];
+            chars[c++] = ALPHABET[bits & 0x3f];
+        }
+        if (length - i == 1) {
+            int bits = (data[i] & 0xff) << 16;
+            chars[c++] = ALPHABET[bits >>> 18];
+            chars[c++] = ALPHABET[bits >>> 12 & 0x3f];
+        } else if (length - i == 2) {
+            int bits = (data[i] & 0xff) << 16 | (data[i + 1] & 0xff) << 8;
+            chars[c++] = ALPHABET[bits >>> 18];
+            chars[c++] = ALPHABET[bits >>> 12 & 0x3f];
+            chars[c++] = ALPHABET[bits >>> 6 & 0x3f];
+        }
+        return new String(chars, 0, c);
+    }
+
+    /**
+     * @return the number of bytes decoded, or -1 if the string is not URL-safe Base64 of a token's size
+     */
+    private static int decodeBase64(String token, byte[] out) {
+        int length = token.length();
+        if (length % 4 == 1 || length * 6 / 8 > out.length) {
+            return -1;
+        }
+        int decoded = 0;
+        int bits = 0;
+        int pending = 0;
+        for (int i = 0; i < length; i++) {
+            char ch = token.charAt(i);
+            int value = ch < DECODE.length ? DECODE[ch] : -1;
+            if (value < 0) {
+                return -1;
+            }
+            bits = (bits << 6 | value) & 0xfff;
+            pending += 6;
+            if (pending >= 8) {
+                pending -= 8;
+                out[decoded++] = (byte) (bits >>> pending);
+            }
+        }
+        // Leftover bits must be zero, so every token has exactly one encoding
+        return (bits & (1 << pending) - 1) == 0 ? decoded : -1;
+    }
+
+    private static class Buffers {
+
+        private final byte[] data = new byte[MAX_LENGTH];
+        private final byte[] digest = new byte[32];
+        private final char[] chars = new char[(MAX_LENGTH + 2) / 3 * 4];
+        private final Mac mac;
+        private int position;
+
+        Buffers(Mac mac) {
+            this.mac = mac;
+        }
+
+        void sign(int length) {
+            mac.update(data, 0, length);
+            try {
+                mac.doFinal(digest, 0);
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+}
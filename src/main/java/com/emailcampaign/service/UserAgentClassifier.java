@@ -0,0 +1,159 @@
+package com.emailcampaign.service;
+
+import com.emailcampaign.model.EmailTracking.DeviceType;
+import com.emailcampaign.model.EmailTracking.EmailClient;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Device type and email client of an open or click, from its User-Agent. Most traffic comes from a
+ * few thousand distinct User-Agents (mail apps and the Gmail and Yahoo image proxies), so results
+ * are kept for the {@code app.tracking.user-agent-cache-size} most recently seen strings and only
+ * new ones are parsed.
+ * <p>
+ * {@code tracking.user-agent.cache} counts lookups by {@code result} (hit or miss) and
+ * {@code tracking.user-agent.cache.hit-ratio} is the share of hits since startup.
+ */
+@Component
+@RequiredArgsConstructor
+public class UserAgentClassifier {
+
+    public static final Classification UNKNOWN = new Classification(DeviceType.UNKNOWN, EmailClient.UNKNOWN);
+
+    // Longer strings are classified without being cached, so odd clients cannot fill the cache with huge keys
+    private static final int MAX_CACHED_LENGTH = 512;
+
+    private final MeterRegistry meterRegistry;
+
+    @Value("${app.tracking.user-agent-cache-size:5000}")
+    private int cacheSize;
+
+    private final Map<String, Classification> cache = Collections.synchronizedMap(
+            new LinkedHashMap<>(256, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Classification> eldest) {
+                    return size() > cacheSize;
+                }
+            });
+
+    private Counter hits;
+    private Counter misses;
+
+    public record Classification(DeviceType deviceType, EmailClient emailClient) {
+    }
+
+    @PostConstruct
+    public void init() {
+        hits = lookups("hit");
+        misses = lookups("miss");
+        Gauge.builder("tracking.user-agent.cache.hit-ratio", this, UserAgentClassifier::hitRatio)
+                .description("Share of User-Agent lookups answered from the cache")
+                .register(meterRegistry);
+        Gauge.builder("tracking.user-agent.cache.size", cache, Map::size)
+                .description("User-Agents currently cached")
+                .register(meterRegistry);
+    }
+
+    public Classification classify(String userAgent) {
+        if (userAgent == null || userAgent.isBlank()) {
+            return UNKNOWN;
+        }
+        if (userAgent.length() > MAX_CACHED_LENGTH) {
+            misses.increment();
+            return parse(userAgent);
+        }
+
+        Classification classification = cache.get(userAgent);
+        if (classification != null) {
+            hits.increment();
+            return classification;
+        }
+        misses.increment();
+        classification = parse(userAgent);
+        cache.put(userAgent, classification);
+        return classification;
+    }
+
+    static Classification parse(String userAgent) {
+        String ua = userAgent.toLowerCase(Locale.ROOT);
+
+        // Image proxies fetch the pixel on the reader's behalf, so only the mailbox provider is known
+        if (ua.contains("googleimageproxy") || ua.contains("ggpht.com")) {
+            return new Classification(DeviceType.PROXY, EmailClient.GMAIL);
+        }
+        if (ua.contains("yahoomailproxy")) {
+            return new Classification(DeviceType.PROXY, EmailClient.YAHOO_MAIL);
+        }
+        // Apple Mail Privacy Protection loads remote content with this bare User-Agent
+        if (ua.equals("mozilla/5.0")) {
+            return new Classification(DeviceType.PROXY, EmailClient.APPLE_MAIL);
+        }
+
+        return new Classification(deviceType(ua), emailClient(ua));
+    }
+
+    private static DeviceType deviceType(String ua) {
+        // Tablets first: iPad User-Agents also say "Mobile"
+        if (ua.contains("ipad") || ua.contains("tablet")
+                || (ua.contains("android") && !ua.contains("mobile") && ua.startsWith("mozilla/"))) {
+            return DeviceType.TABLET;
+        }
+        if (ua.contains("iphone") || ua.contains("ipod") || ua.contains("android") || ua.contains("mobile")
+                || ua.contains("outlook-ios")) {
+            return DeviceType.MOBILE;
+        }
+        return DeviceType.DESKTOP;
+    }
+
+    private static EmailClient emailClient(String ua) {
+        if (ua.contains("outlook") || ua.contains("microsoft office") || ua.contains("ms-office")) {
+            return EmailClient.OUTLOOK;
+        }
+        if (ua.contains("thunderbird")) {
+            return EmailClient.THUNDERBIRD;
+        }
+        if (ua.contains("samsungemail") || ua.contains("samsung email")) {
+            return EmailClient.SAMSUNG_EMAIL;
+        }
+        if (ua.contains("windows mail") || ua.contains("windows live mail")) {
+            return EmailClient.WINDOWS_MAIL;
+        }
+        if (ua.contains("gmail") || ua.contains("com.google.android.gm")) {
+            return EmailClient.GMAIL;
+        }
+        if (ua.contains("yahoo")) {
+            return EmailClient.YAHOO_MAIL;
+        }
+        if (ua.contains("apple mail")) {
+            return EmailClient.APPLE_MAIL;
+        }
+        // Mail on macOS and iOS: Apple WebKit without the browser's Safari token
+        if (ua.contains("applewebkit") && !ua.contains("safari")
+                && (ua.contains("macintosh") || ua.contains("iphone") || ua.contains("ipad"))) {
+            return EmailClient.APPLE_MAIL;
+        }
+        return EmailClient.UNKNOWN;
+    }
+
+    private Counter lookups(String result) {
+        return Counter.builder("tracking.user-agent.cache")
+                .description("User-Agent classifications, by whether the cache had the answer")
+                .tag("result", result)
+                .register(meterRegistry);
+    }
+
+    private double hitRatio() {
+        double total = hits.count() + misses.count();
+        return total > 0 ? hits.count() / total : 0.0;
+    }
+}
@@ -0,0 +1,218 @@
+package com.emailcampaign.benchmark;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-process SMTP sink for load tests. Speaks enough SMTP for JavaMail (EHLO/HELO, AUTH PLAIN
+ * and LOGIN accepting any credentials, MAIL, RCPT, DATA, RSET, NOOP, QUIT) and discards every
+ * message. Each accepted message can be delayed by {@code latency-ms} plus up to
+ * {@code latency-jitter-ms}, and rejected after DATA with {@code failure-code} at {@code failure-rate}.
+ * Single recipients are rejected with 550 at {@code recipient-failure-rate}.
+ * <p>
+ * Enabled by the {@code fake-smtp} profile, which also points {@code spring.mail} at it. Like the
+ * benchmarks it lives in the test sources, so the profile only works on the test classpath, e.g.
+ * {@code mvn spring-boot:test-run -Dspring-boot.run.profiles=fake-smtp}.
+ */
+@Component
+@Profile("fake-smtp")
+@Slf4j
+public class FakeSmtpServer {
+
+    private static final String HOSTNAME = "fake-smtp.local";
+
+    @Value("${app.fake-smtp.port:2525}")
+    private int port;
+
+    @Value("${app.fake-smtp.latency-ms:0}")
+    private long latencyMs;
+
+    @Value("${app.fake-smtp.latency-jitter-ms:0}")
+    private long latencyJitterMs;
+
+    @Value("${app.fake-smtp.failure-rate:0}")
+    private double failureRate;
+
+    @Value("${app.fake-smtp.failure-code:451}")
+    private int failureCode;
+
+    @Value("${app.fake-smtp.recipient-failure-rate:0}")
+    private double recipientFailureRate;
+
+    private final AtomicLong messagesAccepted = new AtomicLong();
+    private final AtomicLong messagesRejected = new AtomicLong();
+    private final AtomicLong recipientsAccepted = new AtomicLong();
+    private final AtomicLong bytesReceived = new AtomicLong();
+    private ServerSocket serverSocket;
+    private ExecutorService connections;
+
+    @PostConstruct
+    public void start() throws IOException {
+        serverSocket = new ServerSocket(port, 200, InetAddress.getLoopbackAddress());
+        // Platform threads, so the sink never competes with the sender's virtual threads for carriers
+        connections = Executors.newCachedThreadPool(Thread.ofPlatform().daemon().name("fake-smtp-", 0).factory());
+        Thread.ofPlatform().daemon().name("fake-smtp-acceptor").start(this::acceptLoop);
+        log.info("Fake SMTP server listening on port {} (latency {}ms +{}ms, failure rate {})",
+                port, latencyMs, latencyJitterMs, failureRate);
+    }
+
+    @PreDestroy
+    public void stop() throws IOException {
+        serverSocket.close();
+        connections.shutdownNow();
+        log.info("Fake SMTP server stopped. Accepted: {}, Rejected: {}", messagesAccepted.get(), messagesRejected.get());
+    }
+
+    public long getMessagesAccepted() {
+        return messagesAccepted.get();
+    }
+
+    public long getMessagesRejected() {
+        return messagesRejected.get();
+    }
+
+    public long getRecipientsAccepted() {
+        return recipientsAccepted.get();
+    }
+
+    public long getBytesReceived() {
+        return bytesReceived.get();
+    }
+
+    private void acceptLoop() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket socket = serverSocket.accept();
+                connections.execute(() -> handle(socket));
+            } catch (IOException e) {
+                if (!serverSocket.isClosed()) {
+                    log.warn("Fake SMTP accept failed: {}", e.getMessage());
+                }
+            }
+        }
+    }
+
+    private void handle(Socket socket) {
+        try (socket;
+             BufferedReader in = new BufferedReader(
+                     new InputStreamReader(socket.getInputStream(), StandardCharsets.ISO_8859_1));
+             OutputStream out = socket.getOutputStream()) {
+
+            reply(out, "220 " + HOSTNAME + " ESMTP ready");
+
+            String line;
+            int recipients = 0;
+            while ((line = in.readLine()) != null) {
+                String command = line.length() >= 4 ? line.substring(0, 4).toUpperCase(Locale.ROOT) : line;
+                switch (command) {
+                    case "EHLO" -> reply(out, "250-" + HOSTNAME + "\r\n250-AUTH PLAIN LOGIN\r\n250-8BITMIME\r\n250 SIZE 52428800");
+                    case "HELO" -> reply(out, "250 " + HOSTNAME);
+                    case "AUTH" -> authenticate(line, in, out);
+                    case "MAIL" -> {
+                        recipients = 0;
+                        reply(out, "250 2.1.0 Ok");
+                    }
+                    case "RCPT" -> {
+                        if (recipientFailureRate > 0 && ThreadLocalRandom.current().nextDouble() < recipientFailureRate) {
+                            reply(out, "550 5.1.1 Injected unknown recipient");
+                        } else {
+                            recipients++;
+                            reply(out, "250 2.1.5 Ok");
+                        }
+                    }
+                    case "DATA" -> receiveData(in, out, recipients);
+                    case "RSET", "NOOP" -> reply(out, "250 2.0.0 Ok");
+                    case "QUIT" -> {
+                        reply(out, "221 2.0.0 Bye");
+                        return;
+                    }
+                    default -> reply(out, "502 5.5.2 Command not recognized");
+                }
+            }
+        } catch (SocketException e) {
+            // Client dropped the connection
+        } catch (IOException e) {
+            log.debug("Fake SMTP connection error: {}", e.getMessage());
+        }
+    }
+
+    private void authenticate(String line, BufferedReader in, OutputStream out) throws IOException {
+        String[] parts = line.split(" ");
+        String mechanism = parts.length > 1 ? parts[1].toUpperCase(Locale.ROOT) : "";
+
+        if (mechanism.equals("PLAIN")) {
+            if (parts.length < 3) {
+                reply(out, "334 ");
+                in.readLine();
+            }
+        } else if (mechanism.equals("LOGIN")) {
+            if (parts.length < 3) {
+                reply(out, "334 VXNlcm5hbWU6");
+                in.readLine();
+            }
+            reply(out, "334 UGFzc3dvcmQ6");
+            in.readLine();
+        } else {
+            reply(out, "504 5.5.4 Unrecognized authentication type");
+            return;
+        }
+        reply(out, "235 2.7.0 Authentication successful");
+    }
+
+    private void receiveData(BufferedReader in, OutputStream out, int recipients) throws IOException {
+        reply(out, "354 End data with <CR><LF>.<CR><LF>");
+
+        String line;
+        long bytes = 0;
+        while ((line = in.readLine()) != null && !line.equals(".")) {
+            // Message content is discarded
+            bytes += line.length() + 2;
+        }
+        bytesReceived.addAndGet(bytes);
+
+        simulateLatency();
+        if (failureRate > 0 && ThreadLocalRandom.current().nextDouble() < failureRate) {
+            messagesRejected.incrementAndGet();
+            reply(out, failureCode + (failureCode >= 500 ? " 5.0.0" : " 4.0.0") + " Injected failure");
+        } else {
+            messagesAccepted.incrementAndGet();
+            recipientsAccepted.addAndGet(recipients);
+            reply(out, "250 2.0.0 Ok: queued");
+        }
+    }
+
+    private void simulateLatency() {
+        long delay = latencyMs + (latencyJitterMs > 0 ? ThreadLocalRandom.current().nextLong(latencyJitterMs + 1) : 0);
+        if (delay > 0) {
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static void reply(OutputStream out, String response) throws IOException {
+        out.write((response + "\r\n").getBytes(StandardCharsets.ISO_8859_1));
+        out.flush();
+    }
+}
@@ -0,0 +1,44 @@
+package com.emailcampaign.benchmark;
+
+import java.util.function.IntSupplier;
+
+/**
+ * Minimal timing loop for the standalone benchmarks in this package: a warm-up phase followed
+ * by a measured phase. Each operation returns an int that is accumulated so the JIT cannot
+ * eliminate the work.
+ */
+final class MicroBenchmark {
+
+    private static final long WARMUP_NANOS = 3_000_000_000L;
+    private static final long MEASURE_NANOS = 5_000_000_000L;
+
+    private static volatile int sink;
+
+    private MicroBenchmark() {
+    }
+
+    static double opsPerSecond(String name, IntSupplier operation) {
+        run(operation, WARMUP_NANOS);
+        long start = System.nanoTime();
+        long ops = run(operation, MEASURE_NANOS);
+        double perSecond = ops / ((System.nanoTime() - start) / 1_000_000_000d);
+
+        System.out.printf("%-40s %,15.0f ops/s%n", name, perSecond);
+        return perSecond;
+    }
+
+    private static long run(IntSupplier operation, long durationNanos) {
+        long deadline = System.nanoTime() + durationNanos;
+        long ops = 0;
+        int accumulator = 0;
+        while (System.nanoTime() < deadline) {
+            // Check the clock every 64 operations to keep its cost out of the measurement
+            for (int i = 0; i < 64; i++) {
+                accumulator += operation.getAsInt();
+            }
+            ops += 64;
+        }
+        sink = accumulator;
+        return ops;
+    }
+}
@@ -0,0 +1,238 @@
+package com.emailcampaign.benchmark;
+
+import com.emailcampaign.model.Campaign;
+import com.emailcampaign.model.RecipientList;
+import com.emailcampaign.model.User;
+import com.emailcampaign.repository.CampaignRepository;
+import com.emailcampaign.repository.RecipientListRepository;
+import com.emailcampaign.repository.UserRepository;
+import com.emailcampaign.service.CampaignService;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.distribution.ValueAtPercentile;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.annotation.Profile;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End-to-end send benchmark against the in-process {@link FakeSmtpServer}: seeds
+ * {@code app.benchmark.recipients} recipients, sends one campaign through the regular
+ * {@link CampaignService#sendCampaign} path and reports messages/sec, p50/p99 per-message
+ * latency, heap allocated per message and the heap high-water mark. With {@code app.benchmark.batch-envelope} the campaign's
+ * merge fields are replaced with constants and it is sent in batch envelope mode.
+ * <p>
+ * Lives in the test sources, so it is not part of the application jar. Run it against a scratch
+ * database with {@code mvn spring-boot:test-run -Dstart-class=com.emailcampaign.EmailCampaignApplication
+ * -Dspring-boot.run.profiles=benchmark -Dspring-boot.test-run.optimizedLaunch=false}.
+ */
+@Component
+@Profile("benchmark")
+@RequiredArgsConstructor
+@Slf4j
+public class SendThroughputBenchmark implements ApplicationRunner {
+
+    private static final int SEED_BATCH_SIZE = 1000;
+
+    private final UserRepository userRepository;
+    private final RecipientListRepository recipientListRepository;
+    private final CampaignRepository campaignRepository;
+    private final CampaignService campaignService;
+    private final JdbcTemplate jdbcTemplate;
+    private final MeterRegistry meterRegistry;
+    private final FakeSmtpServer smtpServer;
+    private final ConfigurableApplicationContext context;
+
+    @Value("${app.benchmark.recipients:10000}")
+    private int recipientCount;
+
+    @Value("${app.benchmark.timeout-minutes:30}")
+    private long timeoutMinutes;
+
+    @Value("${app.benchmark.exit-on-completion:true}")
+    private boolean exitOnCompletion;
+
+    @Value("${app.benchmark.batch-envelope:false}")
+    private boolean batchEnvelope;
+
+    @Override
+    public void run(ApplicationArguments args) throws Exception {
+        String runId = String.valueOf(System.currentTimeMillis());
+        User user = createUser(runId);
+        RecipientList recipientList = seedRecipients(user, runId);
+        Campaign campaign = createCampaign(user, recipientList, runId);
+        Map<String, Timer> timers = captureTimers(campaign);
+
+        resetHeapPeak();
+        long allocatedBefore = allocatedBytes();
+        long start = System.nanoTime();
+        campaignService.sendCampaign(campaign.getId(), user);
+        Campaign.CampaignStatus status = awaitCompletion(campaign.getId());
+        double elapsedSeconds = (System.nanoTime() - start) / 1e9;
+        long allocated = allocatedBytes() - allocatedBefore;
+
+        report(status, elapsedSeconds, allocated, timers);
+
+        if (exitOnCompletion) {
+            System.exit(SpringApplication.exit(context));
+        }
+    }
+
+    private User createUser(String runId) {
+        User user = new User();
+        user.setUsername("benchmark-" + runId);
+        user.setEmail("benchmark-" + runId + "@example.test");
+        user.setPassword("not-a-login");
+        user.setFirstName("Benchmark");
+        user.setLastName("Runner");
+        return userRepository.save(user);
+    }
+
+    private RecipientList seedRecipients(User user, String runId) {
+        RecipientList recipientList = new RecipientList();
+        recipientList.setName("Benchmark " + runId);
+        recipientList.setDescription("Seeded by the send throughput benchmark");
+        recipientList.setUser(user);
+        recipientList = recipientListRepository.save(recipientList);
+
+        long start = System.nanoTime();
+        Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+        List<Object[]> batch = new ArrayList<>(SEED_BATCH_SIZE);
+        for (int i = 0; i < recipientCount; i++) {
+            // Spread recipients over many domains, like a real list
+            batch.add(new Object[]{"user" + i + "@d" + (i % 100) + ".example.test", "First" + i, "Last" + i,
+                    "ACTIVE", now, now, recipientList.getId()});
+            if (batch.size() == SEED_BATCH_SIZE || i == recipientCount - 1) {
+                jdbcTemplate.batchUpdate("INSERT INTO recipients (email, first_name, last_name, status, " +
+                        "subscribed_at, created_at, recipient_list_id) VALUES (?, ?, ?, ?, ?, ?, ?)", batch);
+                batch.clear();
+            }
+        }
+
+        log.info("Seeded {} recipients in {} ms", recipientCount,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        return recipientList;
+    }
+
+    private Campaign createCampaign(User user, RecipientList recipientList, String runId) {
+        Campaign campaign = TemplateRenderBenchmark.sampleCampaign();
+        campaign.setId(null);
+        campaign.setName("Benchmark " + runId);
+        campaign.setSenderName("Benchmark");
+        campaign.setSenderEmail("sender@example.test");
+        campaign.setUser(user);
+        campaign.setRecipientList(recipientList);
+        if (batchEnvelope) {
+            campaign.setContent(campaign.getContent()
+                    .replace("[[${recipient.firstName}]]", "there")
+                    .replace("[(${unsubscribeUrl})]", "https://example.test/unsubscribe"));
+            campaign.setBatchEnvelope(true);
+        }
+        return campaignRepository.save(campaign);
+    }
+
+    private Campaign.CampaignStatus awaitCompletion(Long campaignId) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MINUTES.toNanos(timeoutMinutes);
+        long nextLog = 0;
+
+        while (System.nanoTime() < deadline) {
+            Campaign.CampaignStatus status = campaignRepository.findStatusById(campaignId).orElseThrow();
+            if (status != Campaign.CampaignStatus.SENDING) {
+                return status;
+            }
+            if (System.nanoTime() >= nextLog) {
+                log.info("Benchmark in progress: {} messages accepted by the fake relay", smtpServer.getMessagesAccepted());
+                nextLog = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            }
+            Thread.sleep(100);
+        }
+
+        log.warn("Benchmark timed out after {} minutes", timeoutMinutes);
+        return Campaign.CampaignStatus.SENDING;
+    }
+
+    // SendMetrics removes a campaign's meters from the registry once its send ends, so hold on to them
+    private Map<String, Timer> captureTimers(Campaign campaign) {
+        String campaignTag = String.valueOf(campaign.getId());
+        Map<String, Timer> timers = new ConcurrentHashMap<>();
+        meterRegistry.config().onMeterAdded(meter -> {
+            if (meter instanceof Timer timer && campaignTag.equals(meter.getId().getTag("campaign"))) {
+                timers.putIfAbsent(meter.getId().getName(), timer);
+            }
+        });
+        return timers;
+    }
+
+    private void report(Campaign.CampaignStatus status, double elapsedSeconds, long allocated,
+                        Map<String, Timer> timers) {
+        Timer send = timers.get("email.send");
+        Timer smtp = timers.get("email.smtp.send");
+        long delivered = smtpServer.getMessagesAccepted();
+
+        log.info("==== Send throughput benchmark ====");
+        log.info("Recipients:         {} ({} accepted, {} rejected by the fake relay), final status {}",
+                recipientCount, delivered, smtpServer.getMessagesRejected(), status);
+        log.info("SMTP traffic:       {} recipients in {} transactions, {} MB of message data",
+                smtpServer.getRecipientsAccepted(), delivered,
+                String.format("%.1f", smtpServer.getBytesReceived() / (1024.0 * 1024.0)));
+        log.info("Elapsed:            {} s", String.format("%.2f", elapsedSeconds));
+        log.info("Throughput:         {} msgs/s", String.format("%,.0f", recipientCount / elapsedSeconds));
+        log.info("Per-message p50/p99 {}", percentiles(send));
+        log.info("SMTP send p50/p99   {}", percentiles(smtp));
+        log.info("Allocated per msg:  {} KB (whole process, {} MB in total)",
+                String.format("%.1f", allocated / 1024.0 / recipientCount), allocated / (1024 * 1024));
+        log.info("Heap high-water:    {} MB", heapPeak() / (1024 * 1024));
+    }
+
+    private static String percentiles(Timer timer) {
+        if (timer == null) {
+            return "n/a";
+        }
+        StringBuilder result = new StringBuilder();
+        for (ValueAtPercentile value : timer.takeSnapshot().percentileValues()) {
+            result.append(String.format("p%.0f=%.2f ms ", value.percentile() * 100, value.value(TimeUnit.MILLISECONDS)));
+        }
+        return result.isEmpty() ? "n/a (percentiles not configured)" : result.toString().trim();
+    }
+
+    private static void resetHeapPeak() {
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                pool.resetPeakUsage();
+            }
+        }
+    }
+
+    // Virtual threads allocate on their carriers, so the total covers them too
+    private static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean()).getTotalThreadAllocatedBytes();
+    }
+
+    // Sum of per-pool peaks: an upper bound, as the pools need not peak at the same moment
+    private static long heapPeak() {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        return peak;
+    }
+}